@@ -1,7 +1,12 @@
 package ru.yandex.practicum.controller;
 
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+import jakarta.validation.constraints.Size;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -10,20 +15,28 @@ import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import ru.yandex.practicum.exception.NotFoundException;
 import ru.yandex.practicum.exception.ValidationException;
+import ru.yandex.practicum.index.TitleAutocomplete;
+import ru.yandex.practicum.index.TrendingCounters;
+import ru.yandex.practicum.model.FacetedFilms;
 import ru.yandex.practicum.model.Film;
+import ru.yandex.practicum.model.FilmTitle;
 import ru.yandex.practicum.service.FilmService;
 import ru.yandex.practicum.service.UserService;
 
 import java.time.LocalDate;
-import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/films")
 @Validated
 @Slf4j
 public class FilmController {
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_QUERY_LENGTH = 200;
+    // a deeper page of the ranking costs a heap of offset + limit films
+    private static final int MAX_SEARCH_OFFSET = 10_000;
     private final FilmService filmService;
     private final UserService userService;
 
@@ -35,17 +48,44 @@ public class FilmController {
     }
 
     // CRUDs of films
+    // keyset page: pass the id of the last film received as "after" to get the next page
     @GetMapping
-    public Collection<Film> findAll() {
+    public List<Film> findAll(
+            @PositiveOrZero @RequestParam(defaultValue = "0") long after,
+            @Positive @Max(MAX_PAGE_SIZE) @RequestParam(defaultValue = "100") int limit
+    ) {
         // calling
         log.info("[Calling FilmController findAll()]");
-        return filmService.findAll();
+        return filmService.findPage(after, limit);
+    }
+
+    // filtered films with the facet counts; both sorts page by offset, the next page starts at offset + limit
+    @GetMapping("/filter")
+    @ResponseStatus(HttpStatus.OK)
+    public FacetedFilms filter(
+            @RequestParam(name = "genre", required = false) Set<Integer> genreIds,
+            @RequestParam(name = "mpa", required = false) Set<Integer> mpaIds,
+            @RequestParam(required = false) Integer yearFrom,
+            @RequestParam(required = false) Integer yearTo,
+            @Pattern(regexp = "id|" + FilmService.SORT_POPULAR) @RequestParam(defaultValue = "id") String sort,
+            @PositiveOrZero @Max(MAX_SEARCH_OFFSET) @RequestParam(defaultValue = "0") int offset,
+            @Positive @Max(MAX_PAGE_SIZE) @RequestParam(defaultValue = "100") int limit
+    ) {
+        log.debug("[Validation FilmController filter()]");
+        if (yearFrom != null && yearTo != null && yearFrom > yearTo) {
+            throw new ValidationException("yearFrom не может быть больше yearTo");
+        }
+
+        // calling
+        log.info("[Calling FilmController filter()]");
+        return filmService.filter(genreIds != null ? genreIds : Set.of(), mpaIds != null ? mpaIds : Set.of(),
+                yearFrom, yearTo, sort, offset, limit);
     }
 
     @GetMapping("/{filmId}")
     public Optional<Film> findById(@PathVariable("filmId") Long id) {
         log.info("[Calling FilmController findById()]");
-        return filmService.findById(id);
+        return filmService.findDetailsById(id);
     }
 
     @PostMapping
@@ -88,11 +128,11 @@ public class FilmController {
             @PathVariable("userId") Long userId
     ) {
         log.debug("[Validation FilmController addLike()]");
-        if (filmService.findById(filmId).isEmpty()) {
+        if (!filmService.existsById(filmId)) {
             throw new NotFoundException("Film is not found");
         }
 
-        if (userService.findById(userId).isEmpty()) {
+        if (!userService.existsById(userId)) {
             throw new NotFoundException("User is not found");
         }
 
@@ -107,11 +147,11 @@ public class FilmController {
             @PathVariable("userId") Long userId
     ) {
         log.debug("[Validation FilmController deleteLike()]");
-        if (filmService.findById(filmId).isEmpty()) {
+        if (!filmService.existsById(filmId)) {
             throw new NotFoundException("Film is not found");
         }
 
-        if (userService.findById(userId).isEmpty()) {
+        if (!userService.existsById(userId)) {
             throw new NotFoundException("User is not found");
         }
 
@@ -120,14 +160,71 @@ public class FilmController {
         filmService.deleteLike(filmId, userId);
     }
 
+    // keyset page of the ids of the users who liked the film: pass the last id received as "after"
+    @GetMapping("/{id}/likes")
+    @ResponseStatus(HttpStatus.OK)
+    public List<Long> findLikes(
+            @PathVariable("id") Long filmId,
+            @PositiveOrZero @RequestParam(defaultValue = "0") long after,
+            @Positive @Max(MAX_PAGE_SIZE) @RequestParam(defaultValue = "100") int limit
+    ) {
+        log.debug("[Validation FilmController findLikes()]");
+        if (!filmService.existsById(filmId)) {
+            throw new NotFoundException("Film is not found");
+        }
+
+        // calling
+        log.info("[Calling FilmController findLikes()]");
+        return filmService.findLikes(filmId, after, limit);
+    }
+
+    // ranked full-text search over names and descriptions: every word of q must be found;
+    // the next page of the ranking starts at offset + limit
+    @GetMapping("/search")
+    @ResponseStatus(HttpStatus.OK)
+    public List<Film> search(
+            @NotBlank @Size(max = MAX_QUERY_LENGTH) @RequestParam String q,
+            @PositiveOrZero @Max(MAX_SEARCH_OFFSET) @RequestParam(defaultValue = "0") int offset,
+            @Positive @Max(MAX_PAGE_SIZE) @RequestParam(defaultValue = "100") int limit
+    ) {
+        // calling
+        log.info("[Calling FilmController search()]");
+        return filmService.search(q, offset, limit);
+    }
+
+    // typeahead over titles: the most liked films whose title starts with the prefix
+    @GetMapping("/autocomplete")
+    @ResponseStatus(HttpStatus.OK)
+    public List<FilmTitle> autocomplete(
+            @NotBlank @Size(max = MAX_QUERY_LENGTH) @RequestParam String prefix,
+            @Positive @Max(TitleAutocomplete.MAX_SUGGESTIONS) @RequestParam(defaultValue = "10") int limit
+    ) {
+        log.debug("[Calling FilmController autocomplete()]");
+        return filmService.autocomplete(prefix, limit);
+    }
+
     @GetMapping("/popular")
     @ResponseStatus(HttpStatus.OK)
     public List<Film> getMostPopular(
-            @Positive @RequestParam(defaultValue = "10") long count
+            @Positive @RequestParam(defaultValue = "10") long count,
+            @RequestParam(name = "genre", required = false) Integer genreId,
+            @RequestParam(required = false) Integer year
     ) {
         // calling
         log.info("[Calling FilmController getMostPopular()]");
-        return filmService.getMostPopular(count);
+        return filmService.getMostPopular(count, genreId, year);
+    }
+
+    // the films liked the most over the last hour / day / week, a recent like counts more than an older one
+    @GetMapping("/trending")
+    @ResponseStatus(HttpStatus.OK)
+    public List<Film> getTrending(
+            @Pattern(regexp = "1h|24h|7d") @RequestParam(defaultValue = "24h") String window,
+            @Positive @Max(MAX_PAGE_SIZE) @RequestParam(defaultValue = "10") int count
+    ) {
+        // calling
+        log.info("[Calling FilmController getTrending()]");
+        return filmService.getTrending(TrendingCounters.Window.of(window).orElseThrow(), count);
     }
 }
 
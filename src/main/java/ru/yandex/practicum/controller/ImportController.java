@@ -0,0 +1,34 @@
+package ru.yandex.practicum.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.yandex.practicum.model.ImportReport;
+import ru.yandex.practicum.service.ImportService;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/import")
+@Slf4j
+public class ImportController {
+    private final ImportService importService;
+
+    @Autowired
+    public ImportController(@Qualifier("importService") ImportService importService) {
+        this.importService = importService;
+    }
+
+    // the body is read as a stream, line by line, it is never held in memory as a whole
+    @PostMapping(consumes = {"application/x-ndjson", MediaType.TEXT_PLAIN_VALUE})
+    public ImportReport importRecords(InputStream body) throws IOException {
+        // calling
+        log.info("[Calling ImportController importRecords()]");
+        return importService.importRecords(body);
+    }
+}
@@ -0,0 +1,63 @@
+package ru.yandex.practicum.controller;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.model.Genre;
+import ru.yandex.practicum.model.MotionPictureAA;
+import ru.yandex.practicum.storage.ReferenceDataRegistry;
+
+import java.io.IOException;
+
+// genres and mpa's of request bodies come out as the shared instances of the registry;
+// an unknown id gives a fresh instance, so the storage reports it as not found.
+// A Jackson module bean, Spring Boot registers it with the application's ObjectMapper; the deserializers
+// need the registry, so they can't be @JsonComponent classes, which are created with no arguments
+@Component
+public class ReferenceDataDeserializers extends SimpleModule {
+
+    @Autowired
+    public ReferenceDataDeserializers(ReferenceDataRegistry registry) {
+        super("ReferenceDataDeserializers");
+        addDeserializer(Genre.class, new GenreDeserializer(registry));
+        addDeserializer(MotionPictureAA.class, new MPADeserializer(registry));
+    }
+
+    public static class GenreDeserializer extends JsonDeserializer<Genre> {
+        private final ReferenceDataRegistry registry;
+
+        public GenreDeserializer(ReferenceDataRegistry registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public Genre deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            JsonNode node = parser.readValueAsTree();
+            Integer id = node.hasNonNull("id") ? node.get("id").asInt() : null;
+
+            return registry.findGenreById(id).orElseGet(() ->
+                    new Genre(id, node.hasNonNull("name") ? node.get("name").asText() : null));
+        }
+    }
+
+    public static class MPADeserializer extends JsonDeserializer<MotionPictureAA> {
+        private final ReferenceDataRegistry registry;
+
+        public MPADeserializer(ReferenceDataRegistry registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public MotionPictureAA deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            JsonNode node = parser.readValueAsTree();
+            Integer id = node.hasNonNull("id") ? node.get("id").asInt() : null;
+
+            return registry.findMPAById(id).orElseGet(() ->
+                    new MotionPictureAA(id, node.hasNonNull("name") ? node.get("name").asText() : null));
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package ru.yandex.practicum.controller;
 
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+import jakarta.validation.constraints.Size;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -8,11 +12,12 @@ import org.springframework.http.HttpStatus;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import ru.yandex.practicum.exception.NotFoundException;
+import ru.yandex.practicum.model.Film;
 import ru.yandex.practicum.model.User;
 import ru.yandex.practicum.service.UserService;
 
-import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @RestController
@@ -20,6 +25,7 @@ import java.util.Optional;
 @Validated
 @Slf4j
 public class UserController {
+    private static final int MAX_PAGE_SIZE = 1000;
     private final UserService userService;
 
     @Autowired
@@ -27,11 +33,15 @@ public class UserController {
         this.userService = userService;
     }
 
+    // keyset page: pass the id of the last user received as "after" to get the next page
     @GetMapping
-    public Collection<User> findAll() {
+    public List<User> findAll(
+            @PositiveOrZero @RequestParam(defaultValue = "0") long after,
+            @Positive @Max(MAX_PAGE_SIZE) @RequestParam(defaultValue = "100") int limit
+    ) {
         // calling
         log.info("* Calling * UserController * findAll()");
-        return userService.findAll();
+        return userService.findPage(after, limit);
     }
 
     @PostMapping
@@ -68,17 +78,33 @@ public class UserController {
         userService.delete(user);
     }
 
+    // films liked by the users with likes most similar to the user's, that the user hasn't liked yet
+    @GetMapping(value = "/{id}/recommendations")
+    public List<Film> getRecommendations(
+            @PathVariable Long id,
+            @Positive @Max(MAX_PAGE_SIZE) @RequestParam(defaultValue = "10") int limit
+    ) {
+        log.debug("* Validation * UserController * getRecommendations()");
+        if (!userService.existsById(id)) {
+            throw new NotFoundException("User is not found");
+        }
+
+        // calling
+        log.info("* Calling * UserController * getRecommendations()");
+        return userService.getRecommendations(id, limit);
+    }
+
     @PutMapping(value = "/{id}/friends/{friendId}")
     public void addFriend(
             @PathVariable Long id,
             @PathVariable Long friendId
     ) {
         log.debug("* Validation * UserController * addFriend()");
-        if (userService.findById(id).isEmpty()) {
+        if (!userService.existsById(id)) {
             throw new NotFoundException("User is not found");
         }
 
-        if (userService.findById(friendId).isEmpty()) {
+        if (!userService.existsById(friendId)) {
             throw new NotFoundException("Friend is not found");
         }
 
@@ -86,8 +112,12 @@ public class UserController {
         //calling
         log.info("* Calling * UserController * addFriend()");
         userService.addFriend(id, friendId);
-        log.info("Users' {} friends: {}", id, userService.getFriends(id));
-        log.info("Users' {} friends: {}", friendId, userService.getFriends(friendId));
+
+        // two more queries, only worth it when someone reads them
+        if (log.isDebugEnabled()) {
+            log.debug("Users' {} friends: {}", id, userService.getFriendsIdes(id));
+            log.debug("Users' {} friends: {}", friendId, userService.getFriendsIdes(friendId));
+        }
     }
 
     @DeleteMapping(value = "/{id}/friends/{friendId}")
@@ -99,7 +129,7 @@ public class UserController {
         if (friendId == null) {
             throw new NotFoundException("friendId is not found");
         }
-        if (userService.findById(id).isEmpty()) {
+        if (!userService.existsById(id)) {
             throw new NotFoundException("User is not found");
         }
 
@@ -108,18 +138,52 @@ public class UserController {
         userService.deleteFriend(id, friendId);
     }
 
+    // keyset page: pass the id of the last friend received as "after" to get the next page
     @GetMapping(value = "/{id}/friends")
     public List<User> getFriends(
-            @PathVariable Long id
+            @PathVariable Long id,
+            @PositiveOrZero @RequestParam(defaultValue = "0") long after,
+            @Positive @Max(MAX_PAGE_SIZE) @RequestParam(defaultValue = "100") int limit
     ) {
         log.debug("* Validation * UserController * getFriends()");
-        if (userService.findById(id).isEmpty()) {
+        if (!userService.existsById(id)) {
             throw new NotFoundException("User is not found");
         }
 
         // calling
         log.info("* Calling * UserController * getFriends()");
-        return userService.getFriends(id);
+        return userService.getFriends(id, after, limit);
+    }
+
+    @GetMapping(value = "/{id}/friends/suggestions")
+    public List<User> getFriendSuggestions(
+            @PathVariable Long id,
+            @Positive @Max(MAX_PAGE_SIZE) @RequestParam(defaultValue = "10") int limit
+    ) {
+        log.debug("* Validation * UserController * getFriendSuggestions()");
+        if (!userService.existsById(id)) {
+            throw new NotFoundException("User is not found");
+        }
+
+        // calling
+        log.info("* Calling * UserController * getFriendSuggestions()");
+        return userService.getFriendSuggestions(id, limit);
+    }
+
+    // batch: other user id -> number of friends in common with the user, for up to MAX_PAGE_SIZE other users
+    @GetMapping(value = "/{id}/friends/common")
+    public Map<Long, Long> getMutualFriendCounts(
+            @PathVariable Long id,
+            @Size(max = MAX_PAGE_SIZE) @RequestParam List<Long> otherIds
+    ) {
+        log.debug("* Validation * UserController * getMutualFriendCounts()");
+        if (!userService.existsById(id)) {
+            throw new NotFoundException("User is not found");
+        }
+
+        // calling
+        log.info("* Calling * UserController * getMutualFriendCounts()");
+        return userService.getMutualFriendCounts(id, otherIds);
     }
 
     @GetMapping(value = "/{id}/friends/common/{otherId}")
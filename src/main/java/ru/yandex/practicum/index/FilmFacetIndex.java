@@ -0,0 +1,135 @@
+package ru.yandex.practicum.index;
+
+import ru.yandex.practicum.model.LongIdSet;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Posting lists of films per genre, per mpa and per release year, as LongIdSet.
+// A filter is an OR of the postings inside each facet and an AND across the facets, no film is scanned.
+// Facet counts follow the usual faceted-search rule: the counts of a facet ignore that facet's own selection,
+// so they tell what choosing one more value of it would give.
+public class FilmFacetIndex {
+    private final Map<Integer, LongIdSet> filmsByGenre = new ConcurrentHashMap<>();
+    private final Map<Integer, LongIdSet> filmsByMpa = new ConcurrentHashMap<>();
+    private final NavigableMap<Integer, LongIdSet> filmsByYear = new ConcurrentSkipListMap<>();
+    private final LongIdSet allFilms = new LongIdSet();
+    // what each film was indexed with, to take it out again on update / delete
+    private final Map<Long, Facets> facetsByFilm = new ConcurrentHashMap<>();
+
+    // adds the film or replaces its facets; mpaId and year may be null
+    public synchronized void put(long filmId, Collection<Integer> genreIds, Integer mpaId, Integer year) {
+        remove(filmId);
+
+        Facets facets = new Facets(Set.copyOf(genreIds), mpaId, year);
+        facets.genreIds().forEach(genreId -> filmsByGenre.computeIfAbsent(genreId, id -> new LongIdSet())
+                .addId(filmId));
+
+        if (mpaId != null) {
+            filmsByMpa.computeIfAbsent(mpaId, id -> new LongIdSet()).addId(filmId);
+        }
+
+        if (year != null) {
+            filmsByYear.computeIfAbsent(year, y -> new LongIdSet()).addId(filmId);
+        }
+
+        allFilms.addId(filmId);
+        facetsByFilm.put(filmId, facets);
+    }
+
+    public synchronized void remove(long filmId) {
+        Facets facets = facetsByFilm.remove(filmId);
+
+        if (facets == null) {
+            return;
+        }
+
+        facets.genreIds().forEach(genreId -> removeFrom(filmsByGenre, genreId, filmId));
+
+        if (facets.mpaId() != null) {
+            removeFrom(filmsByMpa, facets.mpaId(), filmId);
+        }
+
+        if (facets.year() != null) {
+            removeFrom(filmsByYear, facets.year(), filmId);
+        }
+
+        allFilms.removeId(filmId);
+    }
+
+    // the mpa the film is indexed with, null for an unknown film or a film without one
+    public Integer mpaOf(long filmId) {
+        Facets facets = facetsByFilm.get(filmId);
+        return facets != null ? facets.mpaId() : null;
+    }
+
+    // empty genreIds / mpaIds and null years don't filter
+    public Selection select(Set<Integer> genreIds, Set<Integer> mpaIds, Integer yearFrom, Integer yearTo) {
+        LongIdSet byGenre = genreIds.isEmpty() ? allFilms : anyOf(filmsByGenre, genreIds);
+        LongIdSet byMpa = mpaIds.isEmpty() ? allFilms : anyOf(filmsByMpa, mpaIds);
+        LongIdSet byYear = yearFrom == null && yearTo == null ? allFilms
+                : anyOf(filmsByYear, years(yearFrom, yearTo).keySet());
+
+        return new Selection(byGenre.intersect(byMpa).intersect(byYear),
+                counts(filmsByGenre, byMpa.intersect(byYear)),
+                counts(filmsByMpa, byGenre.intersect(byYear)),
+                counts(filmsByYear, byGenre.intersect(byMpa)));
+    }
+
+    private NavigableMap<Integer, LongIdSet> years(Integer yearFrom, Integer yearTo) {
+        return filmsByYear.subMap(yearFrom != null ? yearFrom : Integer.MIN_VALUE, true,
+                yearTo != null ? yearTo : Integer.MAX_VALUE, true);
+    }
+
+    private static LongIdSet anyOf(Map<Integer, LongIdSet> postings, Collection<Integer> keys) {
+        LongIdSet films = new LongIdSet();
+
+        for (Integer key : keys) {
+            LongIdSet keyFilms = postings.get(key);
+
+            if (keyFilms != null) {
+                films = films.union(keyFilms);
+            }
+        }
+
+        return films;
+    }
+
+    // value -> number of the films of the base with that value, values without such films are left out
+    private static Map<Integer, Long> counts(Map<Integer, LongIdSet> postings, LongIdSet base) {
+        Map<Integer, Long> counts = new TreeMap<>();
+
+        postings.forEach((key, films) -> {
+            int count = base.intersectionSize(films);
+
+            if (count > 0) {
+                counts.put(key, (long) count);
+            }
+        });
+
+        return counts;
+    }
+
+    // an emptied set is dropped; put() and remove() hold the monitor, so no put() adds to a set as it goes
+    private static void removeFrom(Map<Integer, LongIdSet> postings, int key, long filmId) {
+        postings.computeIfPresent(key, (k, films) -> {
+            films.removeId(filmId);
+            return films.isEmpty() ? null : films;
+        });
+    }
+
+    // films: ids matching every facet; the counts: facet value -> number of films, ordered by the value
+    public record Selection(LongIdSet films,
+                            Map<Integer, Long> genreCounts,
+                            Map<Integer, Long> mpaCounts,
+                            Map<Integer, Long> yearCounts) {
+    }
+
+    private record Facets(Set<Integer> genreIds, Integer mpaId, Integer year) {
+    }
+}
@@ -0,0 +1,156 @@
+package ru.yandex.practicum.index;
+
+import ru.yandex.practicum.model.LongIdSet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Inverted index over film names and descriptions: token -> LongIdSet of the films, one index per field.
+// A query is an AND of its tokens - word-wise ORs and ANDs of the bitmaps, no film is scanned;
+// the matches are ranked by the idf of the tokens they contain, a token of the name weighs NAME_WEIGHT times more.
+public class FilmSearchIndex {
+    private static final double NAME_WEIGHT = 2.0;
+
+    private final ConcurrentHashMap<String, LongIdSet> nameIndex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongIdSet> descriptionIndex = new ConcurrentHashMap<>();
+    // what each film was indexed with, to take it out again on update / delete
+    private final ConcurrentHashMap<Long, IndexedText> textByFilm = new ConcurrentHashMap<>();
+
+    // lower case words of letters and digits, any script; "ё" is searched as "е"
+    public static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+
+        if (text == null) {
+            return tokens;
+        }
+
+        StringBuilder token = new StringBuilder();
+
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+
+            if (Character.isLetterOrDigit(c)) {
+                token.append(c == 'ё' || c == 'Ё' ? 'е' : Character.toLowerCase(c));
+            } else if (!token.isEmpty()) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+
+        return tokens;
+    }
+
+    public void clear() {
+        nameIndex.clear();
+        descriptionIndex.clear();
+        textByFilm.clear();
+    }
+
+    // adds the film or replaces what it was indexed with
+    public void put(long filmId, String name, String description) {
+        IndexedText text = new IndexedText(tokenize(name), tokenize(description));
+        IndexedText oldText = textByFilm.put(filmId, text);
+
+        if (oldText != null) {
+            unindex(filmId, oldText);
+        }
+
+        text.nameTokens().forEach(token -> addTo(nameIndex, token, filmId));
+        text.descriptionTokens().forEach(token -> addTo(descriptionIndex, token, filmId));
+    }
+
+    public void remove(long filmId) {
+        IndexedText oldText = textByFilm.remove(filmId);
+
+        if (oldText != null) {
+            unindex(filmId, oldText);
+        }
+    }
+
+    // ids of the films with every token of the query, the best first; offset / limit page through the ranking
+    public List<Long> search(String query, int offset, int limit) {
+        Set<String> tokens = tokenize(query);
+
+        if (tokens.isEmpty()) {
+            return List.of();
+        }
+
+        LongIdSet matches = null;
+
+        for (String token : tokens) {
+            LongIdSet films = postings(nameIndex, token).union(postings(descriptionIndex, token));
+            matches = matches == null ? films : matches.intersect(films);
+
+            if (matches.isEmpty()) {
+                return List.of();
+            }
+        }
+
+        double filmCount = Math.max(textByFilm.size(), 1);
+        List<Token> weighted = new ArrayList<>(tokens.size());
+
+        for (String token : tokens) {
+            LongIdSet inName = postings(nameIndex, token);
+            LongIdSet inDescription = postings(descriptionIndex, token);
+            double idf = Math.log(1 + filmCount / Math.max(inName.size() + inDescription.size(), 1));
+            weighted.add(new Token(inName, inDescription, idf));
+        }
+
+        TopK<TopK.Scored> best = TopK.byScore(offset + limit);
+
+        for (Long filmId : matches) {
+            double score = 0;
+
+            for (Token token : weighted) {
+                if (token.inName().containsId(filmId)) {
+                    score += NAME_WEIGHT * token.idf();
+                }
+
+                if (token.inDescription().containsId(filmId)) {
+                    score += token.idf();
+                }
+            }
+
+            best.offer(new TopK.Scored(filmId, score));
+        }
+
+        List<Long> ranked = TopK.ids(best);
+        return ranked.subList(Math.min(offset, ranked.size()), ranked.size());
+    }
+
+    private void unindex(long filmId, IndexedText text) {
+        text.nameTokens().forEach(token -> removeFrom(nameIndex, token, filmId));
+        text.descriptionTokens().forEach(token -> removeFrom(descriptionIndex, token, filmId));
+    }
+
+    private static LongIdSet postings(Map<String, LongIdSet> index, String token) {
+        return index.getOrDefault(token, new LongIdSet());
+    }
+
+    // adds and removes both run under the lock of the token's bin, so an add can't go into a set
+    // that a concurrent remove has just emptied and dropped from the index
+    private static void addTo(ConcurrentHashMap<String, LongIdSet> index, String token, long filmId) {
+        index.compute(token, (t, films) -> {
+            films = films == null ? new LongIdSet() : films;
+            films.addId(filmId);
+            return films;
+        });
+    }
+
+    private static void removeFrom(ConcurrentHashMap<String, LongIdSet> index, String token, long filmId) {
+        index.computeIfPresent(token, (t, films) -> {
+            films.removeId(filmId);
+            return films.isEmpty() ? null : films;
+        });
+    }
+
+    private record IndexedText(Set<String> nameTokens, Set<String> descriptionTokens) {
+    }
+
+    private record Token(LongIdSet inName, LongIdSet inDescription, double idf) {
+    }
+}
@@ -0,0 +1,110 @@
+package ru.yandex.practicum.index;
+
+import ru.yandex.practicum.model.LongIdSet;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
+
+// Confirmed friends of every user as a LongIdSet (user id -> friend ids), the same direction as friendshipConfirmed.
+// Mutual friends of two users are a word-wise AND of their bitmaps: O(words of the smaller set), no user is scanned.
+public class FriendGraph {
+    private static final LongIdSet NO_FRIENDS = new LongIdSet();
+    // bounded fan-out of suggest(): at most this many friends are walked, and at most this many friends of each,
+    // so one suggestion costs at most 500 * 500 steps whatever the size of the lists
+    private static final int MAX_FRIENDS_WALKED = 500;
+    private static final int MAX_FRIENDS_OF_FRIEND_WALKED = 500;
+
+    private final ConcurrentHashMap<Long, LongIdSet> friendsByUser = new ConcurrentHashMap<>();
+
+    public void seed(Map<Long, LongIdSet> friendsIdes) {
+        friendsByUser.clear();
+        friendsByUser.putAll(friendsIdes);
+    }
+
+    public void addFriend(long userId, long friendId) {
+        friendsByUser.computeIfAbsent(userId, id -> new LongIdSet()).addId(friendId);
+    }
+
+    public void removeFriend(long userId, long friendId) {
+        LongIdSet friends = friendsByUser.get(userId);
+
+        if (friends != null) {
+            friends.removeId(friendId);
+        }
+    }
+
+    // the user's own friends and the user in everyone else's friends, as the ON DELETE CASCADE does;
+    // a deletion is rare, so the sets are walked instead of keeping a reverse index
+    public void removeUser(long userId) {
+        friendsByUser.remove(userId);
+
+        for (LongIdSet friends : friendsByUser.values()) {
+            friends.removeId(userId);
+        }
+    }
+
+    public int friendCount(long userId) {
+        return friends(userId).size();
+    }
+
+    // ascending ids
+    public LongIdSet mutualFriends(long userId, long otherId) {
+        return friends(userId).intersect(friends(otherId));
+    }
+
+    // other user id -> number of mutual friends with the user, in the order of otherIds
+    public Map<Long, Long> mutualFriendCounts(long userId, Collection<Long> otherIds) {
+        LongIdSet friends = friends(userId);
+        Map<Long, Long> counts = new LinkedHashMap<>();
+
+        for (Long otherId : otherIds) {
+            counts.put(otherId, (long) friends.intersectionSize(friends(otherId)));
+        }
+
+        return counts;
+    }
+
+    public List<Long> suggestions(long userId, int limit) {
+        return suggest(userId, limit, this::friends);
+    }
+
+    // friends of the user's friends who are not friends of the user yet, ranked by the number of the user's friends
+    // that have them as a friend (desc), then by id (asc); top "limit" by TopK, O(n log limit)
+    public static List<Long> suggest(long userId, int limit, LongFunction<LongIdSet> friendsOf) {
+        LongIdSet friends = friendsOf.apply(userId);
+        Map<Long, Integer> connections = new HashMap<>();
+        int friendsWalked = 0;
+
+        for (Long friendId : friends) {
+            if (friendsWalked++ == MAX_FRIENDS_WALKED) {
+                break;
+            }
+
+            int friendsOfFriendWalked = 0;
+
+            for (Long candidateId : friendsOf.apply(friendId)) {
+                if (friendsOfFriendWalked++ == MAX_FRIENDS_OF_FRIEND_WALKED) {
+                    break;
+                }
+
+                if (candidateId != userId && !friends.containsId(candidateId)) {
+                    connections.merge(candidateId, 1, Integer::sum);
+                }
+            }
+        }
+
+        TopK<TopK.Scored> best = TopK.byScore(limit);
+
+        connections.forEach((candidateId, count) -> best.offer(new TopK.Scored(candidateId, count)));
+        return TopK.ids(best);
+    }
+
+    private LongIdSet friends(long userId) {
+        return friendsByUser.getOrDefault(userId, NO_FRIENDS);
+    }
+}
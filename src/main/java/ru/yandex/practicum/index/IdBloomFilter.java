@@ -0,0 +1,240 @@
+package ru.yandex.practicum.index;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.yandex.practicum.model.LongIdSet;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Bloom filter of the ids that exist, to turn away unknown ids before the storage is asked:
+// "no" is certain for the ids written through this instance, "maybe" is wrong for about FALSE_POSITIVE_RATE
+// of the unknown ids and goes on to the storage.
+// Ids written by another instance or straight to the database are missed until the next rebuild, so a "no" is
+// final only with singleWriter; otherwise find() / exists() ask the storage on a miss and add the id it finds.
+// It is scalable - a full stage gets a GROWTH times larger one with a TIGHTENING times lower error rate, so the
+// rate stays bounded however many ids are added - and rebuilt from the storage every rebuild interval, which sheds
+// the deleted ids. Lookups take no lock.
+@Slf4j
+public class IdBloomFilter implements AutoCloseable {
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final double TIGHTENING = 0.5;
+    private static final int GROWTH = 2;
+    private static final int MIN_CAPACITY = 1024;
+
+    private final String name;
+    private final long rebuildIntervalMillis;
+    // this instance is the only one writing the ids, a "no" needs no storage lookup
+    private final boolean singleWriter;
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private volatile Filter filter = new Filter(MIN_CAPACITY);
+    // the filter being rebuilt, it gets the ids added meanwhile too; guarded by this
+    private Filter pending;
+    private final ScheduledExecutorService rebuilder;
+
+    // name: what the ids are of, for the logs and the thread
+    public IdBloomFilter(String name, long rebuildIntervalMillis, boolean singleWriter) {
+        this.name = name;
+        this.rebuildIntervalMillis = rebuildIntervalMillis;
+        this.singleWriter = singleWriter;
+        this.rebuilder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-id-filter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // ids: every id in the storage
+    public void start(Supplier<LongIdSet> ids) {
+        rebuilder.scheduleWithFixedDelay(() -> rebuildQuietly(ids), rebuildIntervalMillis, rebuildIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        log.info("* IdBloomFilter * start(), {} ids, rebuild interval = {} ms, single writer = {}",
+                name, rebuildIntervalMillis, singleWriter);
+    }
+
+    // false: the id is unknown to this instance
+    public boolean mightContain(Long id) {
+        return id != null && filter.mightContain(id);
+    }
+
+    // the lookup of the id, skipped if the filter rules the id out
+    public <T> Optional<T> find(Long id, Function<Long, Optional<T>> lookup) {
+        if (id == null) {
+            return Optional.empty();
+        }
+
+        boolean known = filter.mightContain(id);
+
+        if (!known && singleWriter) {
+            return Optional.empty();
+        }
+
+        Optional<T> found = lookup.apply(id);
+
+        if (!known && found.isPresent()) {
+            add(id);
+        }
+
+        return found;
+    }
+
+    public boolean exists(Long id, Predicate<Long> lookup) {
+        return find(id, key -> lookup.test(key) ? Optional.of(key) : Optional.empty()).isPresent();
+    }
+
+    // an id committed to the storage
+    public synchronized void add(long id) {
+        filter.add(id);
+
+        if (pending != null) {
+            pending.add(id);
+        }
+    }
+
+    // a new filter, sized by the ids the old one holds; it is pending before the ids are read,
+    // so an id committed meanwhile is either read or added to it, none is lost
+    public void rebuild(Supplier<LongIdSet> ids) {
+        rebuildLock.lock();
+
+        try {
+            Filter fresh;
+
+            synchronized (this) {
+                fresh = new Filter(Math.max(MIN_CAPACITY, filter.count() + filter.count() / 4));
+                pending = fresh;
+            }
+
+            for (Long id : ids.get()) {
+                fresh.add(id);
+            }
+
+            synchronized (this) {
+                filter = fresh;
+                pending = null;
+            }
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        rebuilder.shutdownNow();
+    }
+
+    private void rebuildQuietly(Supplier<LongIdSet> ids) {
+        try {
+            rebuild(ids);
+            log.debug("* IdBloomFilter * rebuild(), {} ids, done", name);
+        } catch (RuntimeException e) {
+            log.warn("* IdBloomFilter * rebuild(), {} ids, failed: {}", name, e.getMessage());
+        }
+    }
+
+    // stages of growing capacity; an id is in the filter if any stage has it
+    private static final class Filter {
+        private volatile Stage[] stages;
+
+        private Filter(long capacity) {
+            this.stages = new Stage[] {new Stage(capacity, FALSE_POSITIVE_RATE * (1 - TIGHTENING))};
+        }
+
+        private boolean mightContain(long id) {
+            for (Stage stage : stages) {
+                if (stage.mightContain(id)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private synchronized long count() {
+            return Arrays.stream(stages).mapToLong(stage -> stage.count).sum();
+        }
+
+        private synchronized void add(long id) {
+            Stage last = stages[stages.length - 1];
+
+            if (last.count == last.capacity) {
+                Stage[] grown = Arrays.copyOf(stages, stages.length + 1);
+                last = new Stage(last.capacity * GROWTH, last.falsePositiveRate * TIGHTENING);
+                grown[stages.length] = last;
+                stages = grown;
+            }
+
+            last.add(id);
+        }
+    }
+
+    private static final class Stage {
+        private final long capacity;
+        private final double falsePositiveRate;
+        private final int bitCount;
+        private final int hashCount;
+        private final AtomicLongArray words;
+        // ids added, guarded by the filter
+        private long count;
+
+        private Stage(long capacity, double falsePositiveRate) {
+            long bits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate;
+            this.bitCount = (int) Math.min(Math.max(bits, Long.SIZE), Integer.MAX_VALUE - Long.SIZE);
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+            this.words = new AtomicLongArray((bitCount + Long.SIZE - 1) / Long.SIZE);
+        }
+
+        private void add(long id) {
+            long hash = mix(id);
+
+            for (int i = 0; i < hashCount; i++) {
+                int bit = bit(hash, i);
+                long mask = 1L << bit;
+                int word = bit >>> 6;
+
+                if ((words.get(word) & mask) == 0) {
+                    words.getAndAccumulate(word, mask, (bits, added) -> bits | added);
+                }
+            }
+
+            count++;
+        }
+
+        private boolean mightContain(long id) {
+            long hash = mix(id);
+
+            for (int i = 0; i < hashCount; i++) {
+                int bit = bit(hash, i);
+
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        // double hashing: the i-th bit from the two halves of one 64-bit hash
+        private int bit(long hash, int i) {
+            int combined = (int) hash + i * (int) (hash >>> 32);
+            return (combined & Integer.MAX_VALUE) % bitCount;
+        }
+
+        // the splitmix64 finalizer
+        private static long mix(long id) {
+            long hash = id;
+            hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+            hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+            return hash ^ (hash >>> 31);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package ru.yandex.practicum.index;
+
+import ru.yandex.practicum.model.LongIdSet;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Sparse user x film matrix of likes, both ways: the films of every user and the users of every film as LongIdSet.
+// A like / unlike updates two bitmaps, so recommendations never recompute anything from users_likes.
+public class LikeMatrix {
+    // neighbours: users who liked at least one of the user's films, at most this many users of each film
+    private static final int MAX_USERS_PER_FILM_WALKED = 1000;
+    // the films of the most similar neighbours are scored
+    private static final int MAX_NEIGHBOURS = 50;
+    // fewer candidates than this are not worth splitting into fork/join subtasks
+    private static final int SIMILARITY_SPLIT_THRESHOLD = 512;
+
+    private final ConcurrentHashMap<Long, LongIdSet> filmsByUser = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, LongIdSet> usersByFilm = new ConcurrentHashMap<>();
+
+    // likedFilms: user id -> ids of the films the user liked
+    public void seed(Map<Long, LongIdSet> likedFilms) {
+        filmsByUser.clear();
+        usersByFilm.clear();
+
+        likedFilms.forEach((userId, filmIds) -> {
+            for (Long filmId : filmIds) {
+                addLike(filmId, userId);
+            }
+        });
+    }
+
+    public void addLike(long filmId, long userId) {
+        addTo(filmsByUser, userId, filmId);
+        addTo(usersByFilm, filmId, userId);
+    }
+
+    public void removeLike(long filmId, long userId) {
+        removeFrom(filmsByUser, userId, filmId);
+        removeFrom(usersByFilm, filmId, userId);
+    }
+
+    public void removeUser(long userId) {
+        LongIdSet filmIds = filmsByUser.remove(userId);
+
+        if (filmIds != null) {
+            for (Long filmId : filmIds) {
+                removeFrom(usersByFilm, filmId, userId);
+            }
+        }
+    }
+
+    public void removeFilm(long filmId) {
+        LongIdSet userIds = usersByFilm.remove(filmId);
+
+        if (userIds != null) {
+            for (Long userId : userIds) {
+                removeFrom(filmsByUser, userId, filmId);
+            }
+        }
+    }
+
+    // films the user hasn't liked, scored by the summed similarity of the neighbours who liked them (desc),
+    // then by id (asc); similarity of two users is the Jaccard index of their liked films
+    public List<Long> recommend(long userId, int limit) {
+        LongIdSet likedFilms = films(userId);
+
+        if (likedFilms.isEmpty()) {
+            return List.of();
+        }
+
+        long[] candidates = candidateNeighbours(userId, likedFilms);
+        double[] similarities = new double[candidates.length];
+
+        ForkJoinPool.commonPool().invoke(new SimilarityTask(likedFilms, candidates, similarities,
+                0, candidates.length));
+
+        TopK<TopK.Scored> neighbours = TopK.byScore(MAX_NEIGHBOURS);
+
+        for (int i = 0; i < candidates.length; i++) {
+            neighbours.offer(new TopK.Scored(candidates[i], similarities[i]));
+        }
+
+        Map<Long, Double> scores = new HashMap<>();
+
+        for (TopK.Scored neighbour : neighbours.toList()) {
+            for (Long filmId : films(neighbour.id())) {
+                if (!likedFilms.containsId(filmId)) {
+                    scores.merge(filmId, neighbour.score(), Double::sum);
+                }
+            }
+        }
+
+        TopK<TopK.Scored> best = TopK.byScore(limit);
+
+        scores.forEach((filmId, score) -> best.offer(new TopK.Scored(filmId, score)));
+        return TopK.ids(best);
+    }
+
+    private long[] candidateNeighbours(long userId, LongIdSet likedFilms) {
+        LongIdSet candidates = new LongIdSet();
+
+        for (Long filmId : likedFilms) {
+            int usersWalked = 0;
+
+            for (Long otherId : users(filmId)) {
+                if (usersWalked++ == MAX_USERS_PER_FILM_WALKED) {
+                    break;
+                }
+
+                if (otherId != userId) {
+                    candidates.addId(otherId);
+                }
+            }
+        }
+
+        return candidates.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private LongIdSet films(long userId) {
+        return filmsByUser.getOrDefault(userId, new LongIdSet());
+    }
+
+    private LongIdSet users(long filmId) {
+        return usersByFilm.getOrDefault(filmId, new LongIdSet());
+    }
+
+    // adds and removes both run under the lock of the key's bin, so an add can't go into a set
+    // that a concurrent remove has just emptied and dropped from the map
+    private static void addTo(ConcurrentHashMap<Long, LongIdSet> sets, long key, long id) {
+        sets.compute(key, (k, ids) -> {
+            ids = ids == null ? new LongIdSet() : ids;
+            ids.addId(id);
+            return ids;
+        });
+    }
+
+    private static void removeFrom(ConcurrentHashMap<Long, LongIdSet> sets, long key, long id) {
+        sets.computeIfPresent(key, (k, ids) -> {
+            ids.removeId(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    // similarities[i] = Jaccard index of likedFilms and the films of candidates[i], halves forked until small
+    private class SimilarityTask extends RecursiveAction {
+        private final LongIdSet likedFilms;
+        private final long[] candidates;
+        private final double[] similarities;
+        private final int from;
+        private final int to;
+
+        SimilarityTask(LongIdSet likedFilms, long[] candidates, double[] similarities, int from, int to) {
+            this.likedFilms = likedFilms;
+            this.candidates = candidates;
+            this.similarities = similarities;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SIMILARITY_SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    LongIdSet otherFilms = films(candidates[i]);
+                    int common = likedFilms.intersectionSize(otherFilms);
+                    int union = likedFilms.size() + otherFilms.size() - common;
+
+                    similarities[i] = union == 0 ? 0 : (double) common / union;
+                }
+
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+
+            invokeAll(new SimilarityTask(likedFilms, candidates, similarities, from, middle),
+                    new SimilarityTask(likedFilms, candidates, similarities, middle, to));
+        }
+    }
+}
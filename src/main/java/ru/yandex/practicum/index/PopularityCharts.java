@@ -0,0 +1,77 @@
+package ru.yandex.practicum.index;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+// PopularityLeaderboard per genre, per release year and per genre and year, so "top comedies of 1999" is read
+// in O(count) like the global ranking. A film sits in one chart per genre, one for its year and one per genre
+// in that year; a like / unlike updates each of them in O(log n).
+public class PopularityCharts {
+    private final Map<ChartKey, PopularityLeaderboard> charts = new ConcurrentHashMap<>();
+    // the charts of each film; compute() on it serializes the changes of one film
+    private final ConcurrentHashMap<Long, Set<ChartKey>> chartsByFilm = new ConcurrentHashMap<>();
+
+    // adds the film or moves it to the charts of its new genres / year; year may be null.
+    // likes is read under the film's lock, so a count read before a concurrent like can't overwrite it
+    public void put(long filmId, Collection<Integer> genreIds, Integer year, LongSupplier likes) {
+        Set<ChartKey> keys = new HashSet<>();
+
+        for (Integer genreId : genreIds) {
+            keys.add(new ChartKey(genreId, null));
+
+            if (year != null) {
+                keys.add(new ChartKey(genreId, year));
+            }
+        }
+
+        if (year != null) {
+            keys.add(new ChartKey(null, year));
+        }
+
+        chartsByFilm.compute(filmId, (id, oldKeys) -> {
+            if (oldKeys != null) {
+                oldKeys.stream()
+                        .filter(key -> !keys.contains(key))
+                        .forEach(key -> chart(key).remove(id));
+            }
+
+            long count = likes.getAsLong();
+            keys.forEach(key -> chart(key).set(id, count));
+            return keys;
+        });
+    }
+
+    public void remove(long filmId) {
+        chartsByFilm.computeIfPresent(filmId, (id, keys) -> {
+            keys.forEach(key -> chart(key).remove(id));
+            return null;
+        });
+    }
+
+    // the film's new like count, for every chart it is in; read under the film's lock like in put()
+    public void set(long filmId, LongSupplier likes) {
+        chartsByFilm.computeIfPresent(filmId, (id, keys) -> {
+            long count = likes.getAsLong();
+            keys.forEach(key -> chart(key).set(id, count));
+            return keys;
+        });
+    }
+
+    // genreId or year may be null - any genre / any year, not both
+    public List<Long> top(Integer genreId, Integer year, long count) {
+        PopularityLeaderboard chart = charts.get(new ChartKey(genreId, year));
+        return chart != null ? chart.top(count) : List.of();
+    }
+
+    private PopularityLeaderboard chart(ChartKey key) {
+        return charts.computeIfAbsent(key, k -> new PopularityLeaderboard());
+    }
+
+    private record ChartKey(Integer genreId, Integer year) {
+    }
+}
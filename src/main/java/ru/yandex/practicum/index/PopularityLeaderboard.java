@@ -0,0 +1,105 @@
+package ru.yandex.practicum.index;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+
+// Films ordered by like count (desc), then by id (asc) - the same order as FilmDbStorage.getMostPopular().
+// A like / unlike is O(log n), reading the top "count" films is O(count).
+// Only films with at least one like are ranked.
+public class PopularityLeaderboard {
+    private static final Comparator<Entry> RANKING_ORDER = Comparator
+            .comparingLong((Entry entry) -> entry.likes).reversed()
+            .thenComparingLong(entry -> entry.filmId);
+
+    private final ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<>(RANKING_ORDER);
+    private final ConcurrentHashMap<Long, Long> likesByFilm = new ConcurrentHashMap<>();
+
+    public void seed(Map<Long, Long> likesCounts) {
+        ranking.clear();
+        likesByFilm.clear();
+
+        for (Map.Entry<Long, Long> likesCount : likesCounts.entrySet()) {
+            set(likesCount.getKey(), likesCount.getValue());
+        }
+    }
+
+    public void increment(long filmId) {
+        change(filmId, likes -> likes + 1);
+    }
+
+    public void decrement(long filmId) {
+        change(filmId, likes -> likes - 1);
+    }
+
+    // absolute count, e.g. recounted by the storage
+    public void set(long filmId, long likes) {
+        change(filmId, oldLikes -> likes);
+    }
+
+    public void remove(long filmId) {
+        likesByFilm.computeIfPresent(filmId, (id, likes) -> {
+            ranking.remove(new Entry(id, likes));
+            return null;
+        });
+    }
+
+    public long likes(long filmId) {
+        return likesByFilm.getOrDefault(filmId, 0L);
+    }
+
+    public List<Long> top(long count) {
+        return top(count, filmId -> true);
+    }
+
+    // the top "count" of the films that pass the filter; walks the ranking until there are enough of them
+    public List<Long> top(long count, LongPredicate filter) {
+        List<Long> filmIds = new ArrayList<>((int) Math.min(count, 1024));
+        Iterator<Entry> iterator = ranking.iterator();
+
+        while (filmIds.size() < count && iterator.hasNext()) {
+            long filmId = iterator.next().filmId;
+
+            if (filter.test(filmId)) {
+                filmIds.add(filmId);
+            }
+        }
+
+        return filmIds;
+    }
+
+    // the per-film bin lock of compute() keeps the map and the ranking in step for concurrent likes of one film
+    private void change(long filmId, LongUnaryOperator update) {
+        likesByFilm.compute(filmId, (id, likes) -> {
+            long oldLikes = likes == null ? 0 : likes;
+            long newLikes = Math.max(update.applyAsLong(oldLikes), 0);
+
+            if (oldLikes > 0) {
+                ranking.remove(new Entry(id, oldLikes));
+            }
+
+            if (newLikes > 0) {
+                ranking.add(new Entry(id, newLikes));
+                return newLikes;
+            }
+
+            return null;
+        });
+    }
+
+    private static final class Entry {
+        private final long filmId;
+        private final long likes;
+
+        private Entry(long filmId, long likes) {
+            this.filmId = filmId;
+            this.likes = likes;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package ru.yandex.practicum.index;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+// Approximate like counts in fixed memory: a Count-Min Sketch of DEPTH rows x WIDTH counters, where a like / unlike
+// adds +1 / -1 to one counter per row - DEPTH lock-free atomic adds, no lock and no map entry per film.
+// A film's estimate is the smallest of its counters: never below its likes, and with probability 1 - e^-DEPTH
+// above them by at most e / WIDTH of all the likes.
+// The ranking is kept over heavy-hitter candidates: a liked film whose estimate beats the last of the best
+// HEAVY_HITTERS joins them, and the candidates are cut back to the best HEAVY_HITTERS once they are twice as many.
+// The reconciler rebuilds the sketch from the exact counts of the storage every reconcile interval.
+@Slf4j
+public class PopularitySketch implements AutoCloseable {
+    public static final int HEAVY_HITTERS = 1000;
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1 << 16;
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+    };
+
+    private final long reconcileIntervalMillis;
+    private final ReentrantLock pruneLock = new ReentrantLock();
+    // replaced as a whole by reset()
+    private volatile Table table = new Table();
+    private final ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "popularity-reconciler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PopularitySketch(long reconcileIntervalMillis) {
+        this.reconcileIntervalMillis = reconcileIntervalMillis;
+    }
+
+    // exactCounts: film id -> like count, read from the storage
+    public void start(Supplier<Map<Long, Long>> exactCounts) {
+        reconciler.scheduleWithFixedDelay(() -> reconcileQuietly(exactCounts), reconcileIntervalMillis,
+                reconcileIntervalMillis, TimeUnit.MILLISECONDS);
+        log.info("* PopularitySketch * start(), {} x {} counters, reconcile interval = {} ms",
+                DEPTH, WIDTH, reconcileIntervalMillis);
+    }
+
+    // a like (delta 1), an unlike (delta -1) or the net change of a flushed batch
+    public void add(long filmId, int delta) {
+        Table current = table;
+        long estimate = Long.MAX_VALUE;
+
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, current.counters.addAndGet(index(row, filmId), delta));
+        }
+
+        if (delta > 0 && estimate > current.threshold && !current.candidates.contains(filmId)) {
+            current.candidates.add(filmId);
+
+            if (current.candidates.size() > 2 * HEAVY_HITTERS) {
+                prune(current);
+            }
+        }
+    }
+
+    public long estimate(long filmId) {
+        return estimate(table, filmId);
+    }
+
+    // the counters of a deleted film stay, ids are not reused
+    public void remove(long filmId) {
+        table.candidates.remove(filmId);
+    }
+
+    // the "count" films with the highest estimates, the best first; count is at most HEAVY_HITTERS
+    public List<Long> top(int count) {
+        return rank(table, count).stream()
+                .map(TopK.Scored::id)
+                .toList();
+    }
+
+    // starts over from exact counts; likes added while they were read from the storage are only
+    // in the replaced table, the next reset brings them back
+    public void reset(Map<Long, Long> likesCounts) {
+        Table fresh = new Table();
+        TopK<TopK.Scored> best = TopK.byScore(HEAVY_HITTERS);
+
+        likesCounts.forEach((filmId, likes) -> {
+            for (int row = 0; row < DEPTH; row++) {
+                fresh.counters.addAndGet(index(row, filmId), likes);
+            }
+
+            best.offer(new TopK.Scored(filmId, likes));
+        });
+
+        List<TopK.Scored> ranked = best.toList();
+
+        fresh.threshold = threshold(ranked);
+        ranked.forEach(scored -> fresh.candidates.add(scored.id()));
+        table = fresh;
+    }
+
+    @Override
+    public void close() {
+        reconciler.shutdownNow();
+    }
+
+    private void reconcileQuietly(Supplier<Map<Long, Long>> exactCounts) {
+        try {
+            reset(exactCounts.get());
+            log.debug("* PopularitySketch * reconcile(), done");
+        } catch (RuntimeException e) {
+            log.warn("* PopularitySketch * reconcile(), failed: {}", e.getMessage());
+        }
+    }
+
+    // one writer at a time cuts the candidates back, the others go on adding
+    private void prune(Table current) {
+        if (!pruneLock.tryLock()) {
+            return;
+        }
+
+        try {
+            if (current.candidates.size() <= 2 * HEAVY_HITTERS) {
+                return;
+            }
+
+            List<TopK.Scored> best = rank(current, HEAVY_HITTERS);
+            Set<Long> kept = new HashSet<>();
+            best.forEach(scored -> kept.add(scored.id()));
+
+            current.candidates.removeIf(filmId -> !kept.contains(filmId));
+            current.threshold = threshold(best);
+        } finally {
+            pruneLock.unlock();
+        }
+    }
+
+    private static List<TopK.Scored> rank(Table current, int count) {
+        TopK<TopK.Scored> best = TopK.byScore(count);
+
+        for (Long filmId : current.candidates) {
+            long likes = estimate(current, filmId);
+
+            if (likes > 0) {
+                best.offer(new TopK.Scored(filmId, likes));
+            }
+        }
+
+        return best.toList();
+    }
+
+    // the estimate of the last of the best, once there are HEAVY_HITTERS of them
+    private static long threshold(List<TopK.Scored> best) {
+        return best.size() == HEAVY_HITTERS ? (long) best.get(best.size() - 1).score() : 0;
+    }
+
+    private static long estimate(Table current, long filmId) {
+        long estimate = Long.MAX_VALUE;
+
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, current.counters.get(index(row, filmId)));
+        }
+
+        return Math.max(estimate, 0);
+    }
+
+    // an independent hash per row: the seeded id through the splitmix64 finalizer
+    private static int index(int row, long filmId) {
+        long hash = filmId ^ SEEDS[row];
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        hash = hash ^ (hash >>> 31);
+        return row * WIDTH + (int) (hash & (WIDTH - 1));
+    }
+
+    private static final class Table {
+        private final AtomicLongArray counters = new AtomicLongArray(DEPTH * WIDTH);
+        private final Set<Long> candidates = ConcurrentHashMap.newKeySet();
+        // estimate a film must beat to become a candidate: the last of the best at the latest cut
+        private volatile long threshold;
+    }
+}
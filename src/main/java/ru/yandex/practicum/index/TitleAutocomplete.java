@@ -0,0 +1,316 @@
+package ru.yandex.practicum.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongUnaryOperator;
+
+// Trie of film titles (lower case, "ё" as "е") where every node keeps the MAX_SUGGESTIONS most liked films
+// under it, so a lookup is a walk of the prefix and a copy of that list: no scan, no sorting, one allocation.
+// A node's best films come from its own films and the best of its children, so a title change recomputes only
+// the nodes on the path of that one title; a like count change only marks them stale, the next lookup that
+// reaches a stale node recomputes the stale nodes under it.
+// Likes and lookups of fresh nodes take no lock; title writes and refreshes are serialized,
+// and publish new arrays through volatile fields.
+public class TitleAutocomplete {
+    public static final int MAX_SUGGESTIONS = 10;
+    // titles are indexed up to this many characters, a longer prefix is checked against the whole titles
+    private static final int MAX_DEPTH = 32;
+    private static final long[] NO_FILMS = new long[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    // film id -> like count, read when the best films of a node are recomputed
+    private final LongUnaryOperator likesOf;
+    private final Node root = new Node('\0');
+    private final Map<Long, Title> titleByFilm = new ConcurrentHashMap<>();
+    // more likes first, then the lower id
+    private final Comparator<Long> ranking;
+
+    public TitleAutocomplete(LongUnaryOperator likesOf) {
+        this.likesOf = likesOf;
+        this.ranking = Comparator.comparingLong((Long filmId) -> likesOf.applyAsLong(filmId)).reversed()
+                .thenComparingLong(filmId -> filmId);
+    }
+
+    public static String normalize(String text) {
+        StringBuilder key = new StringBuilder(text.length());
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            key.append(c == 'ё' ? 'е' : c);
+        }
+
+        return key.toString();
+    }
+
+    // bulk load: every node is recomputed once at the end instead of once per title on its path
+    public synchronized void putAll(Map<Long, String> titles) {
+        titles.forEach((filmId, title) -> {
+            remove(filmId);
+
+            if (title != null) {
+                insert(filmId, title);
+            }
+        });
+        recomputeSubtree(root);
+    }
+
+    // adds the film or replaces its title
+    public synchronized void put(long filmId, String title) {
+        remove(filmId);
+
+        if (title == null) {
+            return;
+        }
+
+        recompute(insert(filmId, title));
+    }
+
+    public synchronized void remove(long filmId) {
+        Title indexed = titleByFilm.remove(filmId);
+
+        if (indexed == null) {
+            return;
+        }
+
+        Node[] path = path(indexed.key(), false);
+        Node last = path[path.length - 1];
+
+        last.filmIds = without(last.filmIds, filmId);
+        recompute(path);
+    }
+
+    // the like count of the film has changed; deepest first, so the nodes under a stale node are marked already
+    public void likesChanged(long filmId) {
+        Title indexed = titleByFilm.get(filmId);
+
+        if (indexed == null) {
+            return;
+        }
+
+        Node[] path = path(indexed.key(), false);
+
+        for (int i = path.length - 1; i >= 0; i--) {
+            if (path[i] != null) {
+                path[i].stale = true;
+            }
+        }
+    }
+
+    public String title(long filmId) {
+        Title indexed = titleByFilm.get(filmId);
+        return indexed != null ? indexed.title() : null;
+    }
+
+    // ids of the most liked films whose title starts with the prefix, the best first
+    public List<Long> complete(String prefix, int limit) {
+        String key = normalize(prefix);
+        Node node = root;
+
+        for (int i = 0; i < Math.min(key.length(), MAX_DEPTH) && node != null; i++) {
+            node = node.child(key.charAt(i));
+        }
+
+        if (node == null) {
+            return List.of();
+        }
+
+        if (key.length() > MAX_DEPTH) {
+            return completeBeyondDepth(node, key, limit);
+        }
+
+        if (node.stale) {
+            refresh(node);
+        }
+
+        long[] best = node.best;
+        List<Long> filmIds = new ArrayList<>(Math.min(limit, best.length));
+
+        for (int i = 0; i < best.length && i < limit; i++) {
+            filmIds.add(best[i]);
+        }
+
+        return filmIds;
+    }
+
+    // every title under the node shares MAX_DEPTH characters with the prefix, so there are few of them
+    private List<Long> completeBeyondDepth(Node node, String key, int limit) {
+        List<Long> filmIds = new ArrayList<>();
+        collect(node, filmIds);
+
+        return filmIds.stream()
+                .filter(filmId -> {
+                    Title indexed = titleByFilm.get(filmId);
+                    return indexed != null && indexed.key().startsWith(key);
+                })
+                .sorted(ranking)
+                .limit(limit)
+                .toList();
+    }
+
+    private static void collect(Node node, List<Long> filmIds) {
+        for (long filmId : node.filmIds) {
+            filmIds.add(filmId);
+        }
+
+        for (Node child : node.children) {
+            collect(child, filmIds);
+        }
+    }
+
+    private Node[] insert(long filmId, String title) {
+        Title indexed = new Title(normalize(title), title);
+        Node[] path = path(indexed.key(), true);
+        Node last = path[path.length - 1];
+
+        last.filmIds = append(last.filmIds, filmId);
+        titleByFilm.put(filmId, indexed);
+        return path;
+    }
+
+    // root first; missing nodes are created when asked, otherwise the path ends with nulls where the trie does
+    private Node[] path(String key, boolean create) {
+        int depth = Math.min(key.length(), MAX_DEPTH);
+        Node[] path = new Node[depth + 1];
+        path[0] = root;
+
+        for (int i = 0; i < depth && path[i] != null; i++) {
+            Node child = path[i].child(key.charAt(i));
+
+            if (child == null && create) {
+                child = new Node(key.charAt(i));
+                path[i].addChild(child);
+            }
+
+            path[i + 1] = child;
+        }
+
+        return path;
+    }
+
+    // deepest first, so every node sees the new best films of its child; emptied nodes are cut off
+    private void recompute(Node[] path) {
+        for (int i = path.length - 1; i >= 0; i--) {
+            Node node = path[i];
+            recomputeBest(node);
+
+            if (i > 0 && node.filmIds.length == 0 && node.children.length == 0) {
+                path[i - 1].removeChild(node);
+            }
+        }
+    }
+
+    private void recomputeSubtree(Node node) {
+        for (Node child : node.children) {
+            recomputeSubtree(child);
+        }
+
+        recomputeBest(node);
+    }
+
+    private synchronized void refresh(Node node) {
+        refreshStale(node);
+    }
+
+    // the flag is cleared before the recompute, so a like counted meanwhile marks the node again
+    private void refreshStale(Node node) {
+        if (node.stale) {
+            node.stale = false;
+            recomputeBest(node);
+        }
+    }
+
+    private void recomputeBest(Node node) {
+        List<Long> candidates = new ArrayList<>();
+
+        for (long filmId : node.filmIds) {
+            candidates.add(filmId);
+        }
+
+        for (Node child : node.children) {
+            refreshStale(child);
+
+            for (long filmId : child.best) {
+                candidates.add(filmId);
+            }
+        }
+
+        candidates.sort(ranking);
+        node.best = candidates.stream()
+                .limit(MAX_SUGGESTIONS)
+                .mapToLong(Long::longValue)
+                .toArray();
+    }
+
+    private static long[] append(long[] filmIds, long filmId) {
+        long[] appended = Arrays.copyOf(filmIds, filmIds.length + 1);
+        appended[filmIds.length] = filmId;
+        return appended;
+    }
+
+    private static long[] without(long[] filmIds, long filmId) {
+        return Arrays.stream(filmIds).filter(id -> id != filmId).toArray();
+    }
+
+    private record Title(String key, String title) {
+    }
+
+    private static final class Node {
+        private final char label;
+        // sorted by label, replaced as a whole on every change
+        private volatile Node[] children = NO_CHILDREN;
+        // films whose whole (or MAX_DEPTH long) key ends here
+        private volatile long[] filmIds = NO_FILMS;
+        // the MAX_SUGGESTIONS most liked films of the subtree, the best first
+        private volatile long[] best = NO_FILMS;
+        // a like count of a film in the subtree has changed since "best" was computed
+        private volatile boolean stale;
+
+        private Node(char label) {
+            this.label = label;
+        }
+
+        private Node child(char label) {
+            Node[] nodes = children;
+            int index = indexOf(nodes, label);
+            return index >= 0 ? nodes[index] : null;
+        }
+
+        private void addChild(Node child) {
+            Node[] nodes = children;
+            int index = -indexOf(nodes, child.label) - 1;
+            Node[] added = new Node[nodes.length + 1];
+
+            System.arraycopy(nodes, 0, added, 0, index);
+            added[index] = child;
+            System.arraycopy(nodes, index, added, index + 1, nodes.length - index);
+            children = added;
+        }
+
+        private void removeChild(Node child) {
+            children = Arrays.stream(children).filter(node -> node != child).toArray(Node[]::new);
+        }
+
+        private static int indexOf(Node[] nodes, char label) {
+            int low = 0;
+            int high = nodes.length - 1;
+
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+
+                if (nodes[middle].label < label) {
+                    low = middle + 1;
+                } else if (nodes[middle].label > label) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+
+            return -(low + 1);
+        }
+    }
+}
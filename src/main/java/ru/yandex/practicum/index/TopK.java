@@ -0,0 +1,65 @@
+package ru.yandex.practicum.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// The best "k" of any number of candidates by a bounded heap: O(n log k) time, O(k) memory.
+// The heap keeps the weakest of the best on top, a better candidate takes its place.
+public class TopK<T> {
+    // the higher score first, then the lower id
+    private static final Comparator<Scored> BY_SCORE = Comparator
+            .comparingDouble(Scored::score).reversed()
+            .thenComparingLong(Scored::id);
+
+    private final int k;
+    private final Comparator<? super T> bestFirst;
+    private final PriorityQueue<T> weakestFirst;
+
+    private TopK(int k, Comparator<? super T> bestFirst) {
+        this.k = k;
+        this.bestFirst = bestFirst;
+        this.weakestFirst = new PriorityQueue<>(Collections.reverseOrder(bestFirst));
+    }
+
+    public static <T> TopK<T> of(int k, Comparator<? super T> bestFirst) {
+        return new TopK<>(k, bestFirst);
+    }
+
+    // ids ranked by BY_SCORE
+    public static TopK<Scored> byScore(int k) {
+        return of(k, BY_SCORE);
+    }
+
+    public void offer(T candidate) {
+        if (weakestFirst.size() < k) {
+            weakestFirst.add(candidate);
+        } else if (k > 0 && bestFirst.compare(candidate, weakestFirst.peek()) < 0) {
+            weakestFirst.poll();
+            weakestFirst.add(candidate);
+        }
+    }
+
+    public int size() {
+        return weakestFirst.size();
+    }
+
+    // the best first
+    public List<T> toList() {
+        List<T> ranked = new ArrayList<>(weakestFirst);
+        ranked.sort(bestFirst);
+        return ranked;
+    }
+
+    // the ids of toList()
+    public static List<Long> ids(TopK<Scored> best) {
+        return best.toList().stream()
+                .map(Scored::id)
+                .toList();
+    }
+
+    public record Scored(long id, double score) {
+    }
+}
@@ -0,0 +1,224 @@
+package ru.yandex.practicum.index;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Likes per film in time buckets, one ring of buckets per trending window: a like / unlike adds +1 / -1
+// to the current bucket of every ring. A trending read sums the live buckets of one window with exponential decay
+// (a like loses half its weight every quarter of the window), so the likes table is never aggregated.
+// Buckets older than their window are reused in place by the ring and dropped by the sweeper.
+@Slf4j
+public class TrendingCounters implements AutoCloseable {
+    private final LongSupplier clock;
+    private final Map<Window, Ring> rings = new EnumMap<>(Window.class);
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "trending-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // clock: epoch milliseconds
+    public TrendingCounters(LongSupplier clock) {
+        this.clock = clock;
+
+        for (Window window : Window.values()) {
+            rings.put(window, new Ring(window));
+        }
+    }
+
+    public void start() {
+        long interval = Window.HOUR.bucketMillis;
+        sweeper.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("* TrendingCounters * start(), sweep interval = {} ms", interval);
+    }
+
+    // a like (delta 1) or an unlike (delta -1) of the film at the given epoch millisecond
+    public void record(long filmId, long at, int delta) {
+        long now = clock.getAsLong();
+
+        for (Ring ring : rings.values()) {
+            ring.add(filmId, at, now, delta);
+        }
+    }
+
+    public void record(long filmId, int delta) {
+        record(filmId, clock.getAsLong(), delta);
+    }
+
+    public void remove(long filmId) {
+        for (Ring ring : rings.values()) {
+            ring.remove(filmId);
+        }
+    }
+
+    // the "count" films with the highest decayed like count in the window, the best first
+    public List<Long> top(Window window, int count) {
+        long now = clock.getAsLong();
+        Map<Long, Double> scores = rings.get(window).scores(now);
+        TopK<TopK.Scored> best = TopK.byScore(count);
+
+        scores.forEach((filmId, score) -> {
+            if (score > 0) {
+                best.offer(new TopK.Scored(filmId, score));
+            }
+        });
+
+        return TopK.ids(best);
+    }
+
+    public void sweep() {
+        long now = clock.getAsLong();
+
+        for (Ring ring : rings.values()) {
+            ring.expire(now);
+        }
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    public enum Window {
+        HOUR("1h", Duration.ofHours(1), 60),
+        DAY("24h", Duration.ofDays(1), 96),
+        WEEK("7d", Duration.ofDays(7), 168);
+
+        private final String label;
+        private final long bucketMillis;
+        private final int bucketCount;
+        private final double halfLifeMillis;
+
+        Window(String label, Duration length, int bucketCount) {
+            this.label = label;
+            this.bucketMillis = length.toMillis() / bucketCount;
+            this.bucketCount = bucketCount;
+            this.halfLifeMillis = length.toMillis() / 4.0;
+        }
+
+        public static Optional<Window> of(String label) {
+            return Arrays.stream(values()).filter(window -> window.label.equals(label)).findFirst();
+        }
+
+        public static Window longest() {
+            return WEEK;
+        }
+
+        public Duration length() {
+            return Duration.ofMillis(bucketMillis * bucketCount);
+        }
+    }
+
+    private static final class Ring {
+        private final Window window;
+        private final AtomicReferenceArray<Bucket> buckets;
+
+        private Ring(Window window) {
+            this.window = window;
+            this.buckets = new AtomicReferenceArray<>(window.bucketCount);
+        }
+
+        private void add(long filmId, long at, long now, int delta) {
+            long slot = at / window.bucketMillis;
+
+            if (!isLive(slot, now)) {
+                return;
+            }
+
+            Bucket bucket = bucket(slot);
+
+            if (bucket != null) {
+                bucket.counts.computeIfAbsent(filmId, id -> new LongAdder()).add(delta);
+            }
+        }
+
+        private void remove(long filmId) {
+            for (int i = 0; i < buckets.length(); i++) {
+                Bucket bucket = buckets.get(i);
+
+                if (bucket != null) {
+                    bucket.counts.remove(filmId);
+                }
+            }
+        }
+
+        private Map<Long, Double> scores(long now) {
+            Map<Long, Double> scores = new HashMap<>();
+
+            for (int i = 0; i < buckets.length(); i++) {
+                Bucket bucket = buckets.get(i);
+
+                if (bucket == null || !isLive(bucket.slot, now)) {
+                    continue;
+                }
+
+                long middle = bucket.slot * window.bucketMillis + window.bucketMillis / 2;
+                double weight = Math.pow(0.5, Math.max(now - middle, 0) / window.halfLifeMillis);
+
+                bucket.counts.forEach((filmId, likes) ->
+                        scores.merge(filmId, likes.sum() * weight, Double::sum));
+            }
+
+            return scores;
+        }
+
+        private void expire(long now) {
+            for (int i = 0; i < buckets.length(); i++) {
+                Bucket bucket = buckets.get(i);
+
+                if (bucket != null && !isLive(bucket.slot, now)) {
+                    buckets.compareAndSet(i, bucket, null);
+                }
+            }
+        }
+
+        // the bucket of the slot, taking over the place of an expired one; null if a newer slot holds the place
+        private Bucket bucket(long slot) {
+            int index = (int) Math.floorMod(slot, (long) window.bucketCount);
+
+            while (true) {
+                Bucket bucket = buckets.get(index);
+
+                if (bucket != null && bucket.slot == slot) {
+                    return bucket;
+                }
+
+                if (bucket != null && bucket.slot > slot) {
+                    return null;
+                }
+
+                if (buckets.compareAndSet(index, bucket, new Bucket(slot))) {
+                    return buckets.get(index);
+                }
+            }
+        }
+
+        private boolean isLive(long slot, long now) {
+            long currentSlot = now / window.bucketMillis;
+            return slot > currentSlot - window.bucketCount && slot <= currentSlot;
+        }
+    }
+
+    private static final class Bucket {
+        private final long slot;
+        private final ConcurrentHashMap<Long, LongAdder> counts = new ConcurrentHashMap<>();
+
+        private Bucket(long slot) {
+            this.slot = slot;
+        }
+    }
+}
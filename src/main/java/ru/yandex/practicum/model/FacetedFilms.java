@@ -0,0 +1,22 @@
+package ru.yandex.practicum.model;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+
+import java.util.List;
+import java.util.Map;
+
+// a page of filtered films, the number of all films matching the filter and the facet counts:
+// genre id / mpa id / release year -> number of films, each counted without the facet's own selection
+@Data
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class FacetedFilms {
+    List<Film> films;
+    long total;
+    Map<Integer, Long> genres;
+    Map<Integer, Long> mpas;
+    Map<Integer, Long> years;
+}
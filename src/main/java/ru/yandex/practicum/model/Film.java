@@ -1,6 +1,8 @@
 package ru.yandex.practicum.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
@@ -27,7 +29,12 @@ public class Film {
     @Positive
     int duration;
     @JsonIgnore
-    Set<Long> likes = new HashSet<>();
-    MotionPictureAA mpa = new MotionPictureAA();
+    // kept by the in-memory storage only, the database storage pages through likes with findLikes()
+    LongIdSet likes = new LongIdSet();
+    // number of likes, set by the reads that know it
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    Long likeCount;
+    MotionPictureAA mpa = new MotionPictureAA(null, null);
     Set<Genre> genres = new HashSet<>();
 }
\ No newline at end of file
@@ -0,0 +1,5 @@
+package ru.yandex.practicum.model;
+
+// a film as the title autocomplete returns it
+public record FilmTitle(long id, String name, long likeCount) {
+}
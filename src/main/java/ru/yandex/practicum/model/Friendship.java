@@ -0,0 +1,22 @@
+package ru.yandex.practicum.model;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class Friendship {
+    @NotNull
+    @Positive
+    Long userId;
+    @NotNull
+    @Positive
+    Long friendId;
+}
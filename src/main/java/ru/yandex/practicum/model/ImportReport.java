@@ -0,0 +1,20 @@
+package ru.yandex.practicum.model;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// outcome of a bulk import: how many lines were written or rejected, and why the first of them were rejected
+@Data
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class ImportReport {
+    long imported;
+    long failed;
+    List<LineError> errors = new ArrayList<>();
+
+    public record LineError(long line, String error) {
+    }
+}
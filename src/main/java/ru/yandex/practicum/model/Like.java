@@ -0,0 +1,22 @@
+package ru.yandex.practicum.model;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class Like {
+    @NotNull
+    @Positive
+    Long filmId;
+    @NotNull
+    @Positive
+    Long userId;
+}
@@ -0,0 +1,5 @@
+package ru.yandex.practicum.model;
+
+// a film's like count after a merge of likes and by how much the merge really moved it
+public record LikesChange(long likes, long delta) {
+}
@@ -0,0 +1,273 @@
+package ru.yandex.practicum.model;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+// Set of ids kept as a sparse bitmap: the ascending indexes of the non-empty 64-bit words and the words themselves.
+// Ids from an identity column are dense, so a set costs about 16 bytes per 64 ids instead of ~50 bytes per boxed id
+// in a HashSet<Long>; the worst case (ids further than 64 apart) is 16 bytes per id.
+// Iteration goes in ascending id order over a snapshot, all methods are safe for concurrent use.
+public class LongIdSet extends AbstractSet<Long> {
+    private static final long[] EMPTY = new long[0];
+    // id >> WORD_SHIFT is the word index, the low six bits of the id are the bit in the word
+    private static final int WORD_SHIFT = 6;
+    private static final Object TIE_LOCK = new Object();
+
+    private long[] keys = EMPTY;
+    private long[] words = EMPTY;
+    private int wordCount;
+    private int size;
+
+    // ids of both sets: a merge over the word indexes with a word-wise AND
+    public LongIdSet intersect(LongIdSet other) {
+        return walkLocked(this, other, () -> {
+            LongIdSet intersection = new LongIdSet();
+            int i = 0;
+            int j = 0;
+
+            while (i < wordCount && j < other.wordCount) {
+                if (keys[i] < other.keys[j]) {
+                    i++;
+                } else if (keys[i] > other.keys[j]) {
+                    j++;
+                } else {
+                    long word = words[i] & other.words[j];
+
+                    if (word != 0) {
+                        intersection.appendWord(keys[i], word);
+                    }
+
+                    i++;
+                    j++;
+                }
+            }
+
+            return intersection;
+        });
+    }
+
+    // ids of either set: a merge over the word indexes with a word-wise OR
+    public LongIdSet union(LongIdSet other) {
+        return walkLocked(this, other, () -> {
+            LongIdSet union = new LongIdSet();
+            union.ensureCapacity(Math.max(wordCount, other.wordCount));
+            int i = 0;
+            int j = 0;
+
+            while (i < wordCount || j < other.wordCount) {
+                if (j == other.wordCount || (i < wordCount && keys[i] < other.keys[j])) {
+                    union.appendWord(keys[i], words[i]);
+                    i++;
+                } else if (i == wordCount || keys[i] > other.keys[j]) {
+                    union.appendWord(other.keys[j], other.words[j]);
+                    j++;
+                } else {
+                    union.appendWord(keys[i], words[i] | other.words[j]);
+                    i++;
+                    j++;
+                }
+            }
+
+            return union;
+        });
+    }
+
+    // number of ids in both sets, the same merge as intersect() without building the result
+    public int intersectionSize(LongIdSet other) {
+        return walkLocked(this, other, () -> {
+            int count = 0;
+            int i = 0;
+            int j = 0;
+
+            while (i < wordCount && j < other.wordCount) {
+                if (keys[i] < other.keys[j]) {
+                    i++;
+                } else if (keys[i] > other.keys[j]) {
+                    j++;
+                } else {
+                    count += Long.bitCount(words[i] & other.words[j]);
+                    i++;
+                    j++;
+                }
+            }
+
+            return count;
+        });
+    }
+
+    public synchronized boolean containsId(long id) {
+        int index = Arrays.binarySearch(keys, 0, wordCount, id >> WORD_SHIFT);
+        return index >= 0 && (words[index] & (1L << id)) != 0;
+    }
+
+    public synchronized boolean addId(long id) {
+        long key = id >> WORD_SHIFT;
+        long bit = 1L << id;
+        int index = Arrays.binarySearch(keys, 0, wordCount, key);
+
+        if (index >= 0) {
+            if ((words[index] & bit) != 0) {
+                return false;
+            }
+
+            words[index] |= bit;
+            size++;
+            return true;
+        }
+
+        index = -index - 1;
+        ensureCapacity(wordCount + 1);
+        System.arraycopy(keys, index, keys, index + 1, wordCount - index);
+        System.arraycopy(words, index, words, index + 1, wordCount - index);
+        keys[index] = key;
+        words[index] = bit;
+        wordCount++;
+        size++;
+        return true;
+    }
+
+    public synchronized boolean removeId(long id) {
+        int index = Arrays.binarySearch(keys, 0, wordCount, id >> WORD_SHIFT);
+        long bit = 1L << id;
+
+        if (index < 0 || (words[index] & bit) == 0) {
+            return false;
+        }
+
+        words[index] &= ~bit;
+        size--;
+
+        if (words[index] == 0) {
+            System.arraycopy(keys, index + 1, keys, index, wordCount - index - 1);
+            System.arraycopy(words, index + 1, words, index, wordCount - index - 1);
+            wordCount--;
+        }
+
+        return true;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long id && containsId(id);
+    }
+
+    @Override
+    public boolean add(Long id) {
+        return addId(id);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof Long id && removeId(id);
+    }
+
+    @Override
+    public synchronized void clear() {
+        keys = EMPTY;
+        words = EMPTY;
+        wordCount = 0;
+        size = 0;
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        LongIdSet snapshot = copy();
+
+        return new Iterator<>() {
+            private int index;
+            private long word = snapshot.wordCount > 0 ? snapshot.words[0] : 0;
+            private long last;
+            private boolean canRemove;
+
+            @Override
+            public boolean hasNext() {
+                while (word == 0 && index + 1 < snapshot.wordCount) {
+                    word = snapshot.words[++index];
+                }
+
+                return word != 0;
+            }
+
+            @Override
+            public Long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                last = snapshot.keys[index] << WORD_SHIFT | Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                canRemove = true;
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (!canRemove) {
+                    throw new IllegalStateException();
+                }
+
+                removeId(last);
+                canRemove = false;
+            }
+        };
+    }
+
+    // the merges read the arrays of both sets in place, under the locks of both; the locks are taken in the order
+    // of the identity hashes (TIE_LOCK first when those are equal), so two merges of the same sets can't deadlock
+    private static <T> T walkLocked(LongIdSet left, LongIdSet right, Supplier<T> walk) {
+        int leftHash = System.identityHashCode(left);
+        int rightHash = System.identityHashCode(right);
+        LongIdSet first = leftHash <= rightHash ? left : right;
+        LongIdSet second = first == left ? right : left;
+
+        if (leftHash == rightHash && left != right) {
+            synchronized (TIE_LOCK) {
+                synchronized (first) {
+                    synchronized (second) {
+                        return walk.get();
+                    }
+                }
+            }
+        }
+
+        synchronized (first) {
+            synchronized (second) {
+                return walk.get();
+            }
+        }
+    }
+
+    private synchronized LongIdSet copy() {
+        LongIdSet copy = new LongIdSet();
+        copy.keys = Arrays.copyOf(keys, wordCount);
+        copy.words = Arrays.copyOf(words, wordCount);
+        copy.wordCount = wordCount;
+        copy.size = size;
+        return copy;
+    }
+
+    // only for words with a greater index than every word of the set
+    private void appendWord(long key, long word) {
+        ensureCapacity(wordCount + 1);
+        keys[wordCount] = key;
+        words[wordCount] = word;
+        wordCount++;
+        size += Long.bitCount(word);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > keys.length) {
+            int newLength = Math.max(capacity, keys.length + (keys.length >> 1) + 1);
+            keys = Arrays.copyOf(keys, newLength);
+            words = Arrays.copyOf(words, newLength);
+        }
+    }
+}
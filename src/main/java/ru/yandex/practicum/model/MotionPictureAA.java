@@ -2,12 +2,10 @@ package ru.yandex.practicum.model;
 
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
-import lombok.AccessLevel;
-import lombok.Data;
-import lombok.experimental.FieldDefaults;
+import lombok.Value;
 
-@Data
-@FieldDefaults(level = AccessLevel.PRIVATE)
+// immutable, the registry shares one instance per id between all films
+@Value
 public class MotionPictureAA {
     Integer id;
     @NotNull
@@ -1,14 +1,14 @@
 package ru.yandex.practicum.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.validation.constraints.*;
 import lombok.AccessLevel;
 import lombok.Data;
 import lombok.experimental.FieldDefaults;
 
 import java.time.LocalDate;
-import java.util.HashSet;
-import java.util.Set;
 
 @Data
 @FieldDefaults(level = AccessLevel.PRIVATE)
@@ -27,6 +27,12 @@ public class User {
     @Past(message = "Дата рождения не может быть в будущем")
     LocalDate birthday;
     @JsonIgnore
-    Set<Long> friendshipRequests = new HashSet<>();
-    Set<Long> friendshipConfirmed = new HashSet<>();
+    LongIdSet friendshipRequests = new LongIdSet();
+    // kept by the in-memory storage only, the database storage pages through friends with getFriends()
+    @JsonIgnore
+    LongIdSet friendshipConfirmed = new LongIdSet();
+    // number of confirmed friends, set by the reads
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    Long friendCount;
 }
\ No newline at end of file
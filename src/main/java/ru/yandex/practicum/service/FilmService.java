@@ -1,59 +1,426 @@
 package ru.yandex.practicum.service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.index.FilmFacetIndex;
+import ru.yandex.practicum.index.FilmSearchIndex;
+import ru.yandex.practicum.index.IdBloomFilter;
+import ru.yandex.practicum.index.LikeMatrix;
+import ru.yandex.practicum.index.PopularityCharts;
+import ru.yandex.practicum.index.PopularityLeaderboard;
+import ru.yandex.practicum.index.PopularitySketch;
+import ru.yandex.practicum.index.TitleAutocomplete;
+import ru.yandex.practicum.index.TopK;
+import ru.yandex.practicum.index.TrendingCounters;
+import ru.yandex.practicum.model.FacetedFilms;
 import ru.yandex.practicum.model.Film;
+import ru.yandex.practicum.model.FilmTitle;
 import ru.yandex.practicum.model.Genre;
+import ru.yandex.practicum.model.Like;
+import ru.yandex.practicum.model.LikesChange;
+import ru.yandex.practicum.model.LongIdSet;
 import ru.yandex.practicum.model.MotionPictureAA;
 import ru.yandex.practicum.storage.FilmStorage;
 
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 @Service("filmService")
+@Slf4j
 public class FilmService {
+    public static final String SORT_POPULAR = "popular";
     private final FilmStorage filmStorage;
+    // in-process ranking by likes, kept in step with every like / unlike that goes through this service
+    private final PopularityLeaderboard leaderboard = new PopularityLeaderboard();
+    // in-process user x film likes for the recommendations, updated on every like / unlike of this service
+    private final LikeMatrix likeMatrix = new LikeMatrix();
+    // in-process full-text index of names and descriptions, updated on every include / update / delete
+    private final FilmSearchIndex searchIndex = new FilmSearchIndex();
+    // in-process title trie ranked by the like counts of the leaderboard, told about every change of those
+    private final TitleAutocomplete titleIndex = new TitleAutocomplete(leaderboard::likes);
+    // in-process genre / mpa / release year posting lists for the filters, updated on every include / update / delete
+    private final FilmFacetIndex facetIndex = new FilmFacetIndex();
+    // per-genre / per-year rankings, following the like counts of the leaderboard and the genres / dates of the films
+    private final PopularityCharts charts = new PopularityCharts();
+    // likes per film in time buckets for the trending windows, updated on every like / unlike of this service
+    private final TrendingCounters trending = new TrendingCounters(System::currentTimeMillis);
+    // write-behind for likes / unlikes, null when filmorate.likes.write-behind.enabled is off;
+    // with it the leaderboard follows the likes once they are flushed
+    private final LikeWriteBuffer likeBuffer;
+    // approximate like counts for the global ranking, null when filmorate.likes.popularity.approximate is off;
+    // with it a like / unlike only touches the sketch, the leaderboard and the rankings that follow it
+    // are set from the storage every reconcile interval
+    private final PopularitySketch sketch;
+    // ids of the films that exist; an id it does not know is looked up in the storage and learned,
+    // or not found without asking the storage if this instance is the only writer
+    private final IdBloomFilter knownFilmIds;
 
     @Autowired
-    public FilmService(@Qualifier("filmDbStorage") FilmStorage filmStorage) {
+    public FilmService(@Qualifier("filmDbStorage") FilmStorage filmStorage,
+                       @Value("${filmorate.likes.write-behind.enabled:false}") boolean writeBehind,
+                       @Value("${filmorate.likes.write-behind.capacity:100000}") int bufferCapacity,
+                       @Value("${filmorate.likes.write-behind.flush-interval-ms:200}") long flushIntervalMillis,
+                       @Value("${filmorate.likes.popularity.approximate:false}") boolean approximate,
+                       @Value("${filmorate.likes.popularity.reconcile-interval-ms:60000}") long reconcileIntervalMillis,
+                       @Value("${filmorate.ids.filter.rebuild-interval-ms:600000}") long idsRebuildIntervalMillis,
+                       @Value("${filmorate.ids.filter.single-writer:true}") boolean idsSingleWriter) {
         this.filmStorage = filmStorage;
+        this.likeBuffer = writeBehind
+                ? new LikeWriteBuffer(filmStorage, bufferCapacity, flushIntervalMillis, this::likesFlushed)
+                : null;
+        this.sketch = approximate ? new PopularitySketch(reconcileIntervalMillis) : null;
+        this.knownFilmIds = new IdBloomFilter("film", idsRebuildIntervalMillis, idsSingleWriter);
+    }
+
+    @PostConstruct
+    public void init() {
+        knownFilmIds.rebuild(filmStorage::findAllIds);
+        knownFilmIds.start(filmStorage::findAllIds);
+        log.info("* FilmService * init(), id filter is built");
+
+        Map<Long, Long> likesCounts = filmStorage.getLikesCounts();
+        leaderboard.seed(likesCounts);
+        log.info("* FilmService * init(), leaderboard is seeded");
+        likeMatrix.seed(filmStorage.getAllLikes());
+        log.info("* FilmService * init(), like matrix is seeded");
+
+        Map<Long, String> titles = new HashMap<>();
+
+        for (Film film : filmStorage.findAllDetails()) {
+            searchIndex.put(film.getId(), film.getName(), film.getDescription());
+            indexFacets(film);
+            titles.put(film.getId(), film.getName());
+        }
+
+        titleIndex.putAll(titles);
+        log.info("* FilmService * init(), search, facet and title indexes are built");
+
+        Instant since = Instant.now().minus(TrendingCounters.Window.longest().length());
+        filmStorage.getLikeTimesSince(since).forEach((filmId, times) ->
+                times.forEach(time -> trending.record(filmId, time.toEpochMilli(), 1)));
+        trending.start();
+        log.info("* FilmService * init(), trending counters are seeded");
+
+        if (likeBuffer != null) {
+            likeBuffer.start();
+        }
+
+        if (sketch != null) {
+            sketch.reset(likesCounts);
+            sketch.start(this::reconcileLikesCounts);
+        }
+    }
+
+    // pending likes are written before the storage goes away
+    @PreDestroy
+    public void shutdown() {
+        if (likeBuffer != null) {
+            likeBuffer.close();
+        }
+
+        trending.close();
+        knownFilmIds.close();
+
+        if (sketch != null) {
+            sketch.close();
+        }
     }
 
     // films CRUDs
-    public Collection<Film> findAll() {
-        return filmStorage.findAll();
+    public List<Film> findPage(long after, int limit) {
+        return filmStorage.findPage(after, limit);
     }
 
     public Optional<Film> findById(Long filmId) {
-        return filmStorage.findById(filmId);
+        return knownFilmIds.find(filmId, filmStorage::findById);
+    }
+
+    public Optional<Film> findDetailsById(Long filmId) {
+        return knownFilmIds.find(filmId, filmStorage::findDetailsById);
+    }
+
+    public boolean existsById(Long filmId) {
+        return knownFilmIds.exists(filmId, filmStorage::existsById);
     }
 
     public Film include(Film film) {
-        return filmStorage.include(film);
+        Film included = filmStorage.include(film);
+        index(included);
+        return included;
+    }
+
+    // films the import has already committed to the storage
+    public void addImportedFilms(List<Film> films) {
+        films.forEach(this::index);
     }
 
     public Optional<Film> update(Film film) {
-        return filmStorage.update(film);
+        Optional<Film> updated = filmStorage.update(film);
+        updated.ifPresent(this::index);
+        return updated;
+    }
+
+    // filtered page: genres and mpa's - any of the given ones, release year in [yearFrom, yearTo];
+    // sort "id" - ascending ids, sort "popular" - most liked first; both skip offset films
+    public FacetedFilms filter(Set<Integer> genreIds, Set<Integer> mpaIds, Integer yearFrom, Integer yearTo,
+                               String sort, int offset, int limit) {
+        FilmFacetIndex.Selection selection = facetIndex.select(genreIds, mpaIds, yearFrom, yearTo);
+        LongIdSet matches = selection.films();
+        List<Long> filmIds = new ArrayList<>(offset + limit);
+
+        if (SORT_POPULAR.equals(sort)) {
+            // the matches ranked among themselves: more likes first, then the lower id, so the films without likes
+            // come last by id; O(matches log (offset + limit)) whatever the size of the leaderboard
+            TopK<TopK.Scored> best = TopK.byScore(offset + limit);
+
+            for (Long filmId : matches) {
+                best.offer(new TopK.Scored(filmId, leaderboard.likes(filmId)));
+            }
+
+            filmIds.addAll(TopK.ids(best));
+        } else {
+            for (Long filmId : matches) {
+                if (filmIds.size() >= offset + limit) {
+                    break;
+                }
+
+                filmIds.add(filmId);
+            }
+        }
+
+        filmIds = filmIds.subList(Math.min(offset, filmIds.size()), filmIds.size());
+        return new FacetedFilms(filmStorage.findByIds(filmIds), matches.size(),
+                selection.genreCounts(), selection.mpaCounts(), selection.yearCounts());
+    }
+
+    // ranked full-text search over names and descriptions, offset / limit page through the ranking
+    public List<Film> search(String query, int offset, int limit) {
+        return filmStorage.findByIds(searchIndex.search(query, offset, limit));
+    }
+
+    // typeahead: the most liked films whose title starts with the prefix, straight from memory
+    public List<FilmTitle> autocomplete(String prefix, int limit) {
+        List<FilmTitle> titles = new ArrayList<>();
+
+        for (Long filmId : titleIndex.complete(prefix, limit)) {
+            String title = titleIndex.title(filmId);
+
+            if (title != null) {
+                titles.add(new FilmTitle(filmId, title, leaderboard.likes(filmId)));
+            }
+        }
+
+        return titles;
     }
 
     public Optional<Film> delete(Film film) {
-        return filmStorage.delete(film);
+        Optional<Film> deleted = filmStorage.delete(film);
+        leaderboard.remove(film.getId());
+        likeMatrix.removeFilm(film.getId());
+        searchIndex.remove(film.getId());
+        titleIndex.remove(film.getId());
+        facetIndex.remove(film.getId());
+        charts.remove(film.getId());
+        trending.remove(film.getId());
+
+        if (sketch != null) {
+            sketch.remove(film.getId());
+        }
+
+        return deleted;
     }
 
     // CRUDs of likes
+    // with the write-behind buffer the recommendations see a like / unlike as soon as it is accepted,
+    // the trending and the sketch once it is flushed
     public void addLike(Long filmId, Long userId) {
+        likeMatrix.addLike(filmId, userId);
+
+        if (likeBuffer != null) {
+            likeBuffer.like(filmId, userId);
+            return;
+        }
+
         filmStorage.addLike(filmId, userId);
+        trending.record(filmId, 1);
+
+        if (sketch != null) {
+            sketch.add(filmId, 1);
+        } else {
+            leaderboard.increment(filmId);
+            likesChanged(filmId);
+        }
+    }
+
+    public List<Long> findLikes(Long filmId, long after, int limit) {
+        return filmStorage.findLikes(filmId, after, limit);
     }
 
     public void deleteLike(Long filmId, Long userId) {
+        likeMatrix.removeLike(filmId, userId);
+
+        if (likeBuffer != null) {
+            likeBuffer.unlike(filmId, userId);
+            return;
+        }
+
         filmStorage.deleteLike(filmId, userId);
+        // the unlike is taken off the current bucket, whenever the like itself was made
+        trending.record(filmId, -1);
+
+        if (sketch != null) {
+            sketch.add(filmId, -1);
+        } else {
+            leaderboard.decrement(filmId);
+            likesChanged(filmId);
+        }
+    }
+
+    // likes the import has already committed to the storage
+    public void addImportedLikes(List<Like> likes) {
+        for (Like like : likes) {
+            likeMatrix.addLike(like.getFilmId(), like.getUserId());
+            trending.record(like.getFilmId(), 1);
+
+            // the exact leaderboard catches up at the next reconcile in approximate mode, as for addLike()
+            if (sketch != null) {
+                sketch.add(like.getFilmId(), 1);
+            } else {
+                leaderboard.increment(like.getFilmId());
+                likesChanged(like.getFilmId());
+            }
+        }
+    }
+
+    // a deleted user's likes stop influencing the ranking;
+    // likesCounts: film id -> like count recounted by the storage without them
+    public void removeUserLikes(Long userId, Map<Long, Long> likesCounts) {
+        setLikesCounts(likesCounts);
+        likeMatrix.removeUser(userId);
+    }
+
+    // films liked by the users whose likes overlap with the user's the most, the best first
+    public List<Film> getRecommendations(Long userId, int limit) {
+        return filmStorage.findByIds(likeMatrix.recommend(userId, limit));
     }
 
-    // read populars
+    // read populars: ranking comes from the leaderboard, the films themselves from one batched fetch by id
+    // in the approximate mode the ranking comes from the sketch, the like counts of the films are still exact
     public List<Film> getMostPopular(long count) {
-        return filmStorage.getMostPopular(count);
+        if (sketch != null && count <= PopularitySketch.HEAVY_HITTERS) {
+            return filmStorage.findByIds(sketch.top((int) count));
+        }
+
+        return filmStorage.findByIds(leaderboard.top(count));
+    }
+
+    // the films with the most likes in the last window, recent likes weigh more
+    public List<Film> getTrending(TrendingCounters.Window window, int count) {
+        return filmStorage.findByIds(trending.top(window, count));
+    }
+
+    // the same for one genre and / or one release year, from the chart of that bucket
+    public List<Film> getMostPopular(long count, Integer genreId, Integer year) {
+        if (genreId == null && year == null) {
+            return getMostPopular(count);
+        }
+
+        return filmStorage.findByIds(charts.top(genreId, year, count));
+    }
+
+    private void index(Film film) {
+        knownFilmIds.add(film.getId());
+        searchIndex.put(film.getId(), film.getName(), film.getDescription());
+        titleIndex.put(film.getId(), film.getName());
+        indexFacets(film);
+    }
+
+    private void indexFacets(Film film) {
+        Set<Integer> genreIds = new HashSet<>();
+
+        if (film.getGenres() != null) {
+            film.getGenres().stream()
+                    .map(Genre::getId)
+                    .filter(Objects::nonNull)
+                    .forEach(genreIds::add);
+        }
+
+        Integer mpaId = film.getMpa() != null ? film.getMpa().getId() : null;
+
+        // an update without mpa keeps the stored one, as FilmStorage.update() does
+        if (mpaId == null) {
+            mpaId = facetIndex.mpaOf(film.getId());
+        }
+
+        Integer year = film.getReleaseDate() != null ? film.getReleaseDate().getYear() : null;
+
+        facetIndex.put(film.getId(), genreIds, mpaId, year);
+        charts.put(film.getId(), genreIds, year, () -> leaderboard.likes(film.getId()));
+    }
+
+    private void setLikesCounts(Map<Long, Long> likesCounts) {
+        likesCounts.forEach((filmId, likes) -> {
+            leaderboard.set(filmId, likes);
+            likesChanged(filmId);
+        });
+    }
+
+    // write-behind: the flushed counts, and the likes / unlikes that really changed the storage
+    // for trending and the sketch
+    private void likesFlushed(Map<Long, LikesChange> changes) {
+        changes.forEach((filmId, change) -> {
+            leaderboard.set(filmId, change.likes());
+            likesChanged(filmId);
+
+            if (change.delta() != 0) {
+                trending.record(filmId, (int) change.delta());
+
+                if (sketch != null) {
+                    sketch.add(filmId, (int) change.delta());
+                }
+            }
+        });
+    }
+
+    // approximate mode: the exact counts for the sketch, after the leaderboard has caught up with them
+    private Map<Long, Long> reconcileLikesCounts() {
+        Map<Long, Long> likesCounts = filmStorage.getLikesCounts();
+        Map<Long, Long> changed = new HashMap<>();
+
+        likesCounts.forEach((filmId, likes) -> {
+            if (leaderboard.likes(filmId) != likes) {
+                changed.put(filmId, likes);
+            }
+        });
+
+        // films that have lost all their likes
+        for (Long filmId : leaderboard.top(Long.MAX_VALUE)) {
+            if (!likesCounts.containsKey(filmId)) {
+                changed.put(filmId, 0L);
+            }
+        }
+
+        setLikesCounts(changed);
+        return likesCounts;
+    }
+
+    // the indexes ranked by likes follow the leaderboard
+    private void likesChanged(long filmId) {
+        titleIndex.likesChanged(filmId);
+        charts.set(filmId, () -> leaderboard.likes(filmId));
     }
 
     // genres
@@ -0,0 +1,220 @@
+package ru.yandex.practicum.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.exception.ValidationException;
+import ru.yandex.practicum.model.Film;
+import ru.yandex.practicum.model.Friendship;
+import ru.yandex.practicum.model.ImportReport;
+import ru.yandex.practicum.model.Like;
+import ru.yandex.practicum.model.User;
+import ru.yandex.practicum.storage.FilmStorage;
+import ru.yandex.practicum.storage.UserStorage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Bulk import of NDJSON: one record per line, {"type": "film" | "user" | "like" | "friendship", ...fields}.
+// Lines are read one at a time and written in chunks of CHUNK_SIZE, each chunk in its own transaction,
+// so memory does not depend on the size of the body. Films and users of a chunk are written before its
+// likes and friendships; likes and friendships refer to ids that are already stored.
+// A chunk the storage rejects is written again line by line, so every failing line gets its own error.
+@Service("importService")
+@Slf4j
+public class ImportService {
+    private static final int CHUNK_SIZE = 1000;
+    // the report keeps the first errors only, the rest are counted
+    private static final int MAX_REPORTED_ERRORS = 100;
+    private static final LocalDate FIRST_RELEASE_DATE = LocalDate.of(1895, 12, 28);
+
+    private final FilmStorage filmStorage;
+    private final UserStorage userStorage;
+    private final FilmService filmService;
+    private final UserService userService;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public ImportService(@Qualifier("filmDbStorage") FilmStorage filmStorage,
+                         @Qualifier("userDbStorage") UserStorage userStorage,
+                         @Qualifier("filmService") FilmService filmService,
+                         @Qualifier("userService") UserService userService,
+                         ObjectMapper objectMapper,
+                         Validator validator,
+                         PlatformTransactionManager transactionManager) {
+        this.filmStorage = filmStorage;
+        this.userStorage = userStorage;
+        this.filmService = filmService;
+        this.userService = userService;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public ImportReport importRecords(InputStream body) throws IOException {
+        ImportReport report = new ImportReport();
+        List<ImportRecord> chunk = new ArrayList<>(CHUNK_SIZE);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        long lineNumber = 0;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+
+            if (line.isBlank()) {
+                continue;
+            }
+
+            try {
+                chunk.add(new ImportRecord(lineNumber, parse(line)));
+            } catch (JsonProcessingException e) {
+                fail(report, lineNumber, "malformed JSON: " + e.getOriginalMessage());
+            } catch (ValidationException e) {
+                fail(report, lineNumber, e.getMessage());
+            }
+
+            if (chunk.size() == CHUNK_SIZE) {
+                write(chunk, report);
+                chunk.clear();
+            }
+        }
+
+        write(chunk, report);
+        log.info("* ImportService * importRecords(), imported = {}, failed = {}",
+                report.getImported(), report.getFailed());
+        return report;
+    }
+
+    private Object parse(String line) throws JsonProcessingException {
+        JsonNode node = objectMapper.readTree(line);
+        String type = node.path("type").asText();
+
+        switch (type) {
+            case "film" -> {
+                Film film = validate(objectMapper.treeToValue(node, Film.class));
+
+                if (film.getReleaseDate().isBefore(FIRST_RELEASE_DATE)
+                        || film.getReleaseDate().isAfter(LocalDate.now())) {
+                    throw new ValidationException("Дата релиза — не раньше 28 декабря 1895 года");
+                }
+
+                return film;
+            }
+            case "user" -> {
+                User user = validate(objectMapper.treeToValue(node, User.class));
+
+                if (user.getName() == null || user.getName().isBlank()) {
+                    user.setName(user.getLogin());
+                }
+
+                return user;
+            }
+            case "like" -> {
+                return validate(objectMapper.treeToValue(node, Like.class));
+            }
+            case "friendship" -> {
+                return validate(objectMapper.treeToValue(node, Friendship.class));
+            }
+            default -> throw new ValidationException("unknown record type \"" + type + "\"");
+        }
+    }
+
+    private <T> T validate(T value) {
+        Set<ConstraintViolation<T>> violations = validator.validate(value);
+
+        if (!violations.isEmpty()) {
+            throw new ValidationException(violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining("; ")));
+        }
+
+        return value;
+    }
+
+    private void write(List<ImportRecord> chunk, ImportReport report) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        try {
+            writeInTransaction(chunk);
+            report.setImported(report.getImported() + chunk.size());
+        } catch (RuntimeException e) {
+            log.warn("* ImportService * write(), chunk rejected, writing it line by line: {}", e.getMessage());
+
+            for (ImportRecord record : chunk) {
+                try {
+                    writeInTransaction(List.of(record));
+                    report.setImported(report.getImported() + 1);
+                } catch (RuntimeException recordException) {
+                    fail(report, record.line(), recordException.getMessage());
+                }
+            }
+        }
+    }
+
+    private void writeInTransaction(List<ImportRecord> records) {
+        List<Film> films = new ArrayList<>();
+        List<User> users = new ArrayList<>();
+        List<Like> likes = new ArrayList<>();
+        List<Friendship> friendships = new ArrayList<>();
+
+        for (ImportRecord record : records) {
+            Object value = record.value();
+
+            if (value instanceof Film film) {
+                films.add(film);
+            } else if (value instanceof User user) {
+                users.add(user);
+            } else if (value instanceof Like like) {
+                likes.add(like);
+            } else if (value instanceof Friendship friendship) {
+                friendships.add(friendship);
+            } else {
+                throw new IllegalStateException("unexpected record " + value);
+            }
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            filmStorage.includeAll(films);
+            userStorage.createAll(users);
+            filmStorage.addLikes(likes);
+            userStorage.addFriends(friendships);
+        });
+        // the indexes follow only committed films, users, likes and friendships
+        filmService.addImportedFilms(films);
+        userService.addImportedUsers(users);
+        filmService.addImportedLikes(likes);
+        userService.addImportedFriends(friendships);
+    }
+
+    private static void fail(ImportReport report, long lineNumber, String error) {
+        report.setFailed(report.getFailed() + 1);
+
+        if (report.getErrors().size() < MAX_REPORTED_ERRORS) {
+            report.getErrors().add(new ImportReport.LineError(lineNumber, error));
+        }
+    }
+
+    private record ImportRecord(long line, Object value) {
+    }
+}
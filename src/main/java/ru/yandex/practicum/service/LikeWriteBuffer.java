@@ -0,0 +1,163 @@
+package ru.yandex.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.yandex.practicum.model.Like;
+import ru.yandex.practicum.model.LikesChange;
+import ru.yandex.practicum.storage.FilmStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Write-behind for likes: a like / unlike is acknowledged into a map of pending (film, user) pairs and written
+// to the storage by a background flusher, in batches of BATCH_SIZE pairs per transaction.
+// The last of the events of a pair wins, so a pair is pending at most once; a like followed by an unlike is written
+// as an unlike, since the like may already be stored (the writes are idempotent).
+// When the map reaches its capacity the caller flushes it itself, which holds writers back while the storage is
+// behind. close() stops the flusher and drains what is left.
+@Slf4j
+public class LikeWriteBuffer implements AutoCloseable {
+    private static final int BATCH_SIZE = 1000;
+
+    private final FilmStorage filmStorage;
+    private final int capacity;
+    private final long flushIntervalMillis;
+    // film id -> like count after a flush and its change, for the films it touched
+    private final Consumer<Map<Long, LikesChange>> onFlush;
+    // pair -> true for a pending like, false for a pending unlike
+    private final ConcurrentHashMap<Pair, Boolean> pending = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "like-write-buffer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public LikeWriteBuffer(FilmStorage filmStorage,
+                           int capacity,
+                           long flushIntervalMillis,
+                           Consumer<Map<Long, LikesChange>> onFlush) {
+        this.filmStorage = filmStorage;
+        this.capacity = capacity;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.onFlush = onFlush;
+    }
+
+    public void start() {
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        log.info("* LikeWriteBuffer * start(), capacity = {}, flush interval = {} ms", capacity, flushIntervalMillis);
+    }
+
+    public void like(long filmId, long userId) {
+        put(new Pair(filmId, userId), true);
+    }
+
+    public void unlike(long filmId, long userId) {
+        put(new Pair(filmId, userId), false);
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    public void flush() {
+        flushLock.lock();
+
+        try {
+            List<Like> added = new ArrayList<>();
+            List<Like> removed = new ArrayList<>();
+
+            for (Map.Entry<Pair, Boolean> entry : pending.entrySet()) {
+                Pair pair = entry.getKey();
+                boolean liked = entry.getValue();
+
+                // skipped if the pair has changed in the meantime, the next flush writes it
+                if (!pending.remove(pair, liked)) {
+                    continue;
+                }
+
+                (liked ? added : removed).add(new Like(pair.filmId(), pair.userId()));
+
+                if (added.size() + removed.size() == BATCH_SIZE) {
+                    write(added, removed);
+                    added = new ArrayList<>();
+                    removed = new ArrayList<>();
+                }
+            }
+
+            if (!added.isEmpty() || !removed.isEmpty()) {
+                write(added, removed);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+
+        try {
+            if (!flusher.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("* LikeWriteBuffer * close(), the flusher did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        flush();
+        log.info("* LikeWriteBuffer * close(), drained");
+    }
+
+    private void put(Pair pair, boolean liked) {
+        if (pending.size() >= capacity) {
+            flush();
+        }
+
+        pending.put(pair, liked);
+    }
+
+    private void write(List<Like> added, List<Like> removed) {
+        try {
+            onFlush.accept(filmStorage.mergeLikes(added, removed));
+        } catch (RuntimeException e) {
+            // one pair at a time, so that a pair the storage rejects (e.g. of a deleted film) does not take the others
+            log.warn("* LikeWriteBuffer * write(), batch rejected, writing it pair by pair: {}", e.getMessage());
+
+            for (Like like : added) {
+                writeOne(List.of(like), List.of());
+            }
+
+            for (Like like : removed) {
+                writeOne(List.of(), List.of(like));
+            }
+        }
+    }
+
+    private void writeOne(List<Like> added, List<Like> removed) {
+        try {
+            onFlush.accept(filmStorage.mergeLikes(added, removed));
+        } catch (RuntimeException e) {
+            log.error("* LikeWriteBuffer * writeOne(), dropped like {} / unlike {}: {}", added, removed, e.getMessage());
+        }
+    }
+
+    // an exception must not cancel the scheduled flushes
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("* LikeWriteBuffer * flushQuietly() {}", e.getMessage());
+        }
+    }
+
+    private record Pair(long filmId, long userId) {
+    }
+}
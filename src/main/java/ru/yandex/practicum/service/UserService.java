@@ -1,36 +1,88 @@
 package ru.yandex.practicum.service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.index.FriendGraph;
+import ru.yandex.practicum.index.IdBloomFilter;
+import ru.yandex.practicum.model.Film;
+import ru.yandex.practicum.model.Friendship;
 import ru.yandex.practicum.model.User;
 import ru.yandex.practicum.storage.UserStorage;
 
-import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
 @Service("userService")
+@Slf4j
 public class UserService {
     private final UserStorage userStorage;
+    // the film indexes follow the likes a deleted user takes along
+    private final FilmService filmService;
+    // in-process friend bitmaps for mutual friends, kept in step with every friendship change of this service;
+    // null when filmorate.friends.graph.enabled is off, then the storage answers with its queries
+    private final FriendGraph friendGraph;
+    // ids of the users that exist; an id it does not know is looked up in the storage and learned,
+    // or not found without asking the storage if this instance is the only writer
+    private final IdBloomFilter knownUserIds;
 
     @Autowired
-    public UserService(@Qualifier("userDbStorage") UserStorage userStorage) {
+    public UserService(@Qualifier("userDbStorage") UserStorage userStorage,
+                       @Qualifier("filmService") FilmService filmService,
+                       @Value("${filmorate.friends.graph.enabled:true}") boolean friendGraphEnabled,
+                       @Value("${filmorate.ids.filter.rebuild-interval-ms:600000}") long idsRebuildIntervalMillis,
+                       @Value("${filmorate.ids.filter.single-writer:true}") boolean idsSingleWriter) {
         this.userStorage = userStorage;
+        this.filmService = filmService;
+        this.friendGraph = friendGraphEnabled ? new FriendGraph() : null;
+        this.knownUserIds = new IdBloomFilter("user", idsRebuildIntervalMillis, idsSingleWriter);
+    }
+
+    @PostConstruct
+    public void init() {
+        knownUserIds.rebuild(userStorage::findAllIds);
+        knownUserIds.start(userStorage::findAllIds);
+        log.info("* UserService * init(), id filter is built");
+
+        if (friendGraph != null) {
+            friendGraph.seed(userStorage.getAllFriendsIdes());
+            log.info("* UserService * init(), friend graph is seeded");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        knownUserIds.close();
     }
 
     // users CRUDs
-    public Collection<User> findAll() {
-        return userStorage.findAll();
+    public List<User> findPage(long after, int limit) {
+        return userStorage.findPage(after, limit);
     }
 
     public Optional<User> findById(Long userId) {
-        return userStorage.findById(userId);
+        return knownUserIds.find(userId, userStorage::findById);
+    }
+
+    public boolean existsById(Long userId) {
+        return knownUserIds.exists(userId, userStorage::existsById);
     }
 
     public User create(User user) {
-        return userStorage.create(user);
+        User created = userStorage.create(user);
+        knownUserIds.add(created.getId());
+        return created;
+    }
+
+    // users the import has already committed to the storage
+    public void addImportedUsers(List<User> users) {
+        users.forEach(user -> knownUserIds.add(user.getId()));
     }
 
     public Optional<User> update(User user) {
@@ -38,16 +90,48 @@ public class UserService {
     }
 
     public void delete(User user) {
-        userStorage.delete(user);
+        Map<Long, Long> likesCounts = userStorage.delete(user);
+        filmService.removeUserLikes(user.getId(), likesCounts);
+
+        if (friendGraph != null) {
+            friendGraph.removeUser(user.getId());
+        }
+    }
+
+    // recommendations
+    public List<Film> getRecommendations(Long id, int limit) {
+        return filmService.getRecommendations(id, limit);
     }
 
     // CRUDs of friendship
-    public List<User> getFriends(Long id) {
-        return userStorage.getFriends(id);
+    public List<User> getFriends(Long id, long after, int limit) {
+        return userStorage.getFriends(id, after, limit);
     }
 
     public List<User> getMutualFriends(Long id, Long otherId) {
-        return userStorage.getMutualFriends(id, otherId);
+        if (friendGraph == null) {
+            return userStorage.getMutualFriends(id, otherId);
+        }
+
+        return userStorage.findByIds(List.copyOf(friendGraph.mutualFriends(id, otherId)));
+    }
+
+    // other user id -> number of mutual friends with the user
+    public Map<Long, Long> getMutualFriendCounts(Long id, List<Long> otherIds) {
+        if (friendGraph == null) {
+            return userStorage.getMutualFriendCounts(id, otherIds);
+        }
+
+        return friendGraph.mutualFriendCounts(id, otherIds);
+    }
+
+    // non-friends ranked by the connections through the user's friends
+    public List<User> getFriendSuggestions(Long id, int limit) {
+        List<Long> suggestedIds = friendGraph != null
+                ? friendGraph.suggestions(id, limit)
+                : userStorage.getFriendSuggestions(id, limit);
+
+        return userStorage.findByIds(suggestedIds);
     }
 
     public Set<Long> getFriendsIdes(Long id) {
@@ -56,9 +140,26 @@ public class UserService {
 
     public void addFriend(Long id, Long friendId) {
         userStorage.addFriend(id, friendId);
+
+        if (friendGraph != null) {
+            friendGraph.addFriend(id, friendId);
+        }
+    }
+
+    // friendships the import has already committed to the storage
+    public void addImportedFriends(List<Friendship> friendships) {
+        if (friendGraph != null) {
+            for (Friendship friendship : friendships) {
+                friendGraph.addFriend(friendship.getUserId(), friendship.getFriendId());
+            }
+        }
     }
 
     public void deleteFriend(Long id, Long friendId) {
         userStorage.deleteFriend(id, friendId);
+
+        if (friendGraph != null) {
+            friendGraph.removeFriend(id, friendId);
+        }
     }
 }
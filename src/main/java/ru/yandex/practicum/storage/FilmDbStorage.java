@@ -4,25 +4,33 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 import ru.yandex.practicum.exception.NotFoundException;
 import ru.yandex.practicum.exception.SQLProblemException;
 import ru.yandex.practicum.model.Film;
 import ru.yandex.practicum.model.Genre;
+import ru.yandex.practicum.model.Like;
+import ru.yandex.practicum.model.LikesChange;
+import ru.yandex.practicum.model.LongIdSet;
 import ru.yandex.practicum.model.MotionPictureAA;
+import ru.yandex.practicum.storage.mappers.FilmDetailsRowMapper;
 import ru.yandex.practicum.storage.mappers.FilmRowMapper;
-import ru.yandex.practicum.storage.mappers.GenreRowMapper;
+import ru.yandex.practicum.storage.mappers.FilmsResultSetExtractor;
 import ru.yandex.practicum.storage.mappers.LikesMapper;
-import ru.yandex.practicum.storage.mappers.MpasRowMapper;
 
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.*;
 
@@ -31,10 +39,12 @@ import java.util.*;
 @Slf4j
 public class FilmDbStorage implements FilmStorage {
     private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate namedJdbc;
     private final FilmRowMapper filmRowMapper;
-    private final GenreRowMapper genreRowMapper;
-    private final MpasRowMapper mpasRowMapper;
+    private final ReferenceDataRegistry referenceData;
     private final LikesMapper likesMapper;
+    private final FilmsResultSetExtractor filmsExtractor;
+    private final FilmDetailsRowMapper filmDetailsRowMapper;
     // tables
     private static final String TABLE_FILMS = "films";
     private static final String TABLE_LIKES = "users_likes";
@@ -44,34 +54,54 @@ public class FilmDbStorage implements FilmStorage {
     private static final String TABLE_FILMS_GENRE = "films_genre";
     // queries
     private static final String FIND_ALL_QUERY = "SELECT f.id, f.name, f.description, f.releaseDate, f.duration, " +
+            "f.like_count, " +
             "g.id AS genre_id, g.name AS genre_name, m.id AS mpa_id, m.name AS mpa_name " +
             "FROM films f " +
             "LEFT JOIN films_motion_picture_aa fm ON f.id = fm.film_id " +
             "LEFT JOIN motion_picture_aa m ON fm.motion_picture_aa_id = m.id " +
             "LEFT JOIN films_genre fg ON f.id = fg.film_id " +
             "LEFT JOIN genre g ON fg.genre_id = g.id ";
-    private static final String FIND_ALL_GENRES_QUERY = "SELECT * FROM genre";
-    private static final String FIND_ALL_MPAS_QUERY = "SELECT * FROM motion_picture_aa";
+    // genre and mpa names come from the ReferenceDataRegistry, only the ids are read
+    private static final String FIND_PAGE_QUERY = "SELECT f.id, f.name, f.description, f.releaseDate, " +
+            "f.duration, f.like_count, fg.genre_id AS genre_id, fm.motion_picture_aa_id AS mpa_id " +
+            "FROM (SELECT * FROM films WHERE id > ? ORDER BY id LIMIT ?) f " +
+            "LEFT JOIN films_motion_picture_aa fm ON f.id = fm.film_id " +
+            "LEFT JOIN films_genre fg ON f.id = fg.film_id " +
+            "ORDER BY f.id, fg.genre_id";
     private static final String FIND_BY_ID_QUERY = "SELECT * FROM films WHERE id = ?";
-    private static final String FIND_FILMS_MPA_QUERY = "select mpaa.id as id, mpaa.name as name " +
-            "from films_motion_picture_aa fmpaa " +
-            "left join motion_picture_aa mpaa on fmpaa.motion_picture_aa_id = mpaa.id " +
-            "where fmpaa.film_id = ?";
-    private static final String FIND_FILMS_GENRES_QUERY = "select g.id as id, g.name as name " +
-            "from films_genre fg " +
-            "left join genre g on fg.genre_id = g.id " +
-            "where fg.film_id = ?";
-    private static final String FIND_FILMS_LIKES_QUERY = "select ul.user_id as id " +
-            "from users_likes ul where ul.film_id = ?";
-    private static final String FIND_MPA_NAME_QUERY = "SELECT name FROM " + TABLE_MOTION_PICTURE_ASSOCIATION +
-            " WHERE id = ?";
-    private static final String FIND_BY_ID_GENRE_QUERY = "SELECT * FROM genre WHERE id = ?";
-    private static final String FIND_BY_ID_MPAS_QUERY = "SELECT * FROM motion_picture_aa WHERE id = ?";
-    private static final String FIND_GENRES_NAME_QUERY = "SELECT name FROM " + TABLE_GENRE + " WHERE id = ?";
+    // one statement: the mpa id and the array of genre ids come from correlated subqueries over the link tables
+    private static final String FIND_ALL_DETAILS_QUERY = "SELECT f.id, f.name, f.description, f.releaseDate, " +
+            "f.duration, f.like_count, " +
+            "(SELECT fm.motion_picture_aa_id FROM films_motion_picture_aa fm WHERE fm.film_id = f.id " +
+            "ORDER BY fm.motion_picture_aa_id LIMIT 1) AS mpa_id, " +
+            "(SELECT ARRAY_AGG(fg.genre_id ORDER BY fg.genre_id) FROM films_genre fg " +
+            "WHERE fg.film_id = f.id) AS genre_ids " +
+            "FROM films f ";
+    private static final String FIND_DETAILS_BY_ID_QUERY = FIND_ALL_DETAILS_QUERY + "WHERE f.id = ?";
+    private static final String EXISTS_BY_ID_QUERY = "SELECT EXISTS (SELECT 1 FROM films WHERE id = ?)";
+    private static final String FIND_ALL_IDS_QUERY = "SELECT id FROM films";
+    private static final String FIND_BY_IDS_QUERY = "SELECT * FROM films WHERE id IN (:ids)";
+    private static final String FIND_ALL_LIKES_QUERY = "SELECT user_id, film_id FROM users_likes";
+    private static final String FIND_LIKES_COUNTS_QUERY = "SELECT film_id, COUNT(user_id) AS likes " +
+            "FROM users_likes GROUP BY film_id";
+    // range scan over users_likes_created_at_idx
+    private static final String FIND_LIKE_TIMES_SINCE_QUERY = "SELECT film_id, created_at FROM " + TABLE_LIKES +
+            " WHERE created_at >= ?";
+    private static final String FIND_MPAS_OF_FILMS_QUERY = "select film_id, motion_picture_aa_id " +
+            "from films_motion_picture_aa where film_id in (:ids)";
+    private static final String FIND_GENRES_OF_FILMS_QUERY = "select film_id, genre_id " +
+            "from films_genre where film_id in (:ids) " +
+            "order by film_id, genre_id";
+    // keyset page of a film's likes over users_likes_film_idx
+    private static final String FIND_LIKES_PAGE_QUERY = "SELECT user_id AS id FROM " + TABLE_LIKES +
+            " WHERE film_id = ? AND user_id > ? ORDER BY user_id LIMIT ?";
+    // upper bound for the IN (...) list of one hydration query
+    private static final int HYDRATION_CHUNK_SIZE = 1000;
+    // range scan over films_like_count_idx, like_count is maintained by addLike() / deleteLike()
     private static final String FIND_MOST_POPULAR_QUERY = "SELECT f.id, f.name, f.description, f.releaseDate, " +
-            "f.duration FROM films f " +
-            "WHERE f.id IN (SELECT film_id FROM users_likes GROUP BY film_id ORDER BY COUNT(user_id) DESC LIMIT ?) " +
-            "ORDER BY (SELECT COUNT(user_id) FROM users_likes ul WHERE ul.film_id = f.id) DESC";
+            "f.duration, f.like_count FROM films f " +
+            "WHERE f.like_count > 0 " +
+            "ORDER BY f.like_count DESC, f.id LIMIT ?";
     private static final String INSERT_FILM_QUERY = "INSERT INTO " + TABLE_FILMS +
             " (name, description, releaseDate, duration) VALUES (?, ?, ?, ?)";
     private static final String INSERT_LIKE_QUERY = "INSERT INTO " + TABLE_LIKES + " (film_id, user_id) VALUES (?, ?)";
@@ -82,24 +112,38 @@ public class FilmDbStorage implements FilmStorage {
             "VALUES (?, ?)";
     private static final String UPDATE_FILM_QUERY = "UPDATE " + TABLE_FILMS +
             " set name = ?, description = ?, releaseDate = ?, duration = ? where id = ?";
-    private static final String UPDATE_MPA_QUERY = "UPDATE " + TABLE_FILMS_MPA +
-            " set motion_picture_aa_id = ? where film_id = ?";
-    private static final String UPDATE_GENRES_QUERY = "UPDATE " + TABLE_FILMS_GENRE +
-            " set genre_id = ? where film_id = ?";
+    // a film has at most one mpa: replaces it or adds the first one
+    private static final String MERGE_FILMS_MPA_QUERY = "MERGE INTO " + TABLE_FILMS_MPA +
+            " (film_id, motion_picture_aa_id) KEY (film_id) VALUES (?, ?)";
+    private static final String FIND_GENRE_IDS_OF_FILM_QUERY = "SELECT genre_id FROM " + TABLE_FILMS_GENRE +
+            " WHERE film_id = ?";
+    private static final String DELETE_FILMS_GENRE_QUERY = "delete from " + TABLE_FILMS_GENRE +
+            " where film_id = ? AND genre_id = ?";
     private static final String DELETE_QUERY = "delete from " + TABLE_FILMS + " where id = ?";
+    private static final String INSERT_LIKE_IF_ABSENT_QUERY = "INSERT INTO " + TABLE_LIKES + " (film_id, user_id) " +
+            "SELECT ?, ? WHERE NOT EXISTS (SELECT 1 FROM " + TABLE_LIKES + " WHERE film_id = ? AND user_id = ?)";
+    private static final String FIND_LIKE_COUNTS_OF_FILMS_QUERY = "SELECT id, like_count FROM " + TABLE_FILMS +
+            " WHERE id IN (:ids)";
     private static final String DELETE_LIKE_QUERY = "delete  from users_likes where film_id = ? AND user_id = ?";
+    private static final String INCREMENT_LIKE_COUNT_QUERY = "UPDATE " + TABLE_FILMS +
+            " set like_count = like_count + 1 where id = ?";
+    private static final String DECREMENT_LIKE_COUNT_QUERY = "UPDATE " + TABLE_FILMS +
+            " set like_count = like_count - 1 where id = ? AND like_count > 0";
 
     @Autowired
     public FilmDbStorage(JdbcTemplate jdbc,
-                         GenreRowMapper genreRowMapper,
-                         MpasRowMapper mpasRowMapper,
+                         ReferenceDataRegistry referenceData,
                          FilmRowMapper filmRowMapper,
-                         LikesMapper likesmapper) {
+                         LikesMapper likesmapper,
+                         FilmsResultSetExtractor filmsExtractor,
+                         FilmDetailsRowMapper filmDetailsRowMapper) {
         this.jdbc = jdbc;
-        this.genreRowMapper = genreRowMapper;
-        this.mpasRowMapper = mpasRowMapper;
+        this.namedJdbc = new NamedParameterJdbcTemplate(jdbc);
+        this.referenceData = referenceData;
         this.filmRowMapper = filmRowMapper;
         this.likesMapper = likesmapper;
+        this.filmsExtractor = filmsExtractor;
+        this.filmDetailsRowMapper = filmDetailsRowMapper;
     }
 
     // films CRUDs
@@ -122,6 +166,16 @@ public class FilmDbStorage implements FilmStorage {
         return films;
     }
 
+    // keyset page: films with id > after, ordered by id, one round trip per page
+    @Override
+    public List<Film> findPage(long after, int limit) {
+        log.info("------------- * Start / Finish * FilmDbStorage * findPage() -------------");
+
+        List<Film> films = jdbc.query(FIND_PAGE_QUERY, filmsExtractor, after, limit);
+
+        return films != null ? films : List.of();
+    }
+
     @Override
     public Optional<Film> findById(Long id) {
         log.info("------------- * Start / Finish * FilmDbStorage * findById() -------------");
@@ -130,21 +184,7 @@ public class FilmDbStorage implements FilmStorage {
             Film film = jdbc.queryForObject(FIND_BY_ID_QUERY, filmRowMapper, id);
 
             if (film != null && film.getId() != null) {
-                try {
-                    MotionPictureAA mpa = jdbc.queryForObject(FIND_FILMS_MPA_QUERY, mpasRowMapper, id);
-
-                    film.setMpa(mpa);
-                } catch (EmptyResultDataAccessException e) {
-                    film.setMpa(null);
-                }
-
-                Set<Genre> genres = new HashSet<>(jdbc.query(FIND_FILMS_GENRES_QUERY, genreRowMapper, id));
-
-                film.setGenres(genres);
-
-                Set<Long> likes = new HashSet<>(jdbc.query(FIND_FILMS_LIKES_QUERY, likesMapper, id));
-
-                film.setLikes(likes);
+                hydrate(List.of(film));
                 return Optional.of(film);
             } else {
                 return Optional.empty();
@@ -155,18 +195,74 @@ public class FilmDbStorage implements FilmStorage {
     }
 
     @Override
+    public Optional<Film> findDetailsById(Long id) {
+        log.info("------------- * Start / Finish * FilmDbStorage * findDetailsById() -------------");
+        List<Film> films = jdbc.query(FIND_DETAILS_BY_ID_QUERY, filmDetailsRowMapper, id);
+
+        return films.isEmpty() ? Optional.empty() : Optional.of(films.get(0));
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        log.info("------------- * Start / Finish * FilmDbStorage * existsById() -------------");
+        return Boolean.TRUE.equals(jdbc.queryForObject(EXISTS_BY_ID_QUERY, Boolean.class, id));
+    }
+
+    @Override
+    public LongIdSet findAllIds() {
+        log.info("------------- * Start / Finish * FilmDbStorage * findAllIds() -------------");
+        LongIdSet ids = new LongIdSet();
+
+        jdbc.query(FIND_ALL_IDS_QUERY, (RowCallbackHandler) rs -> ids.addId(rs.getLong("id")));
+        return ids;
+    }
+
+    @Override
+    public List<Film> findAllDetails() {
+        log.info("------------- * Start / Finish * FilmDbStorage * findAllDetails() -------------");
+        return jdbc.query(FIND_ALL_DETAILS_QUERY, filmDetailsRowMapper);
+    }
+
+    @Override
+    public List<Film> findByIds(List<Long> ids) {
+        log.info("------------- * Start / Finish * FilmDbStorage * findByIds() -------------");
+        Map<Long, Film> filmsById = new HashMap<>();
+
+        for (int from = 0; from < ids.size(); from += HYDRATION_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + HYDRATION_CHUNK_SIZE, ids.size()));
+
+            for (Film film : namedJdbc.query(FIND_BY_IDS_QUERY, Map.of("ids", chunk), filmRowMapper)) {
+                filmsById.put(film.getId(), film);
+            }
+        }
+
+        List<Film> films = new ArrayList<>(filmsById.size());
+
+        for (Long id : ids) {
+            Film film = filmsById.get(id);
+
+            if (film != null) {
+                films.add(film);
+            }
+        }
+
+        hydrate(films);
+        return films;
+    }
+
+    // one transaction with a constant number of statements: the film, its mpa and one batch of its genres
+    @Override
+    @Transactional
     public Film include(Film film) {
         log.info("------------- * Start * FilmDbStorage * include() ------------");
+        // an unknown mpa or genre fails before anything is written
+        resolveReferences(film);
         KeyHolder keyHolder = new GeneratedKeyHolder();
 
         try {
             jdbc.update(connection -> {
                 PreparedStatement ps = connection.prepareStatement(INSERT_FILM_QUERY, Statement.RETURN_GENERATED_KEYS);
-                ps.setString(1, film.getName());
-                ps.setString(2, film.getDescription());
-                LocalDateTime releaseDate = film.getReleaseDate().atStartOfDay();
-                ps.setObject(3, releaseDate);
-                ps.setInt(4, film.getDuration());
+                setFilmValues(ps, film);
                 return ps;
             }, keyHolder);
         } catch (DataAccessException e) {
@@ -180,143 +276,102 @@ public class FilmDbStorage implements FilmStorage {
         }
 
         film.setId(filmId);
-
-        if (film.getMpa() != null) {
-            Integer id = film.getMpa().getId();
-            if (id != null) {
-                Integer existingMpaCount = jdbc.queryForObject("select count(*) " +
-                        "from motion_picture_aa where id = ?", Integer.class, id);
-                if (existingMpaCount != null && existingMpaCount > 0) {
-                    try {
-                        jdbc.update(INSERT_FILMS_MPA_QUERY, filmId, film.getMpa().getId());
-                    } catch (EmptyResultDataAccessException e) {
-                        throw new SQLProblemException("problem in INSERT_FILMS_MPA_QUERY");
-                    }
-                } else {
-                    throw new NotFoundException("mpa is not found");
-                }
-            }
-        }
-
-        if (!film.getGenres().isEmpty()) {
-            for (Genre genre : film.getGenres()) {
-                Integer id = genre.getId();
-                if (id != null) {
-                    Integer existingGenreCount = jdbc.queryForObject("select count(*) " +
-                            "from genre where id = ?", Integer.class, id);
-                    if (existingGenreCount != null && existingGenreCount > 0) {
-                        try {
-                            jdbc.update(INSERT_FILMS_GENRE_QUERY, filmId, genre.getId());
-                        } catch (EmptyResultDataAccessException e) {
-                            throw new SQLProblemException("problem in INSERT_FILMS_GENRE_QUERY");
-                        }
-                    } else {
-                        throw new NotFoundException("genre is not found");
-                    }
-                }
-            }
-        }
-
+        insertReferences(List.of(film));
         return film;
     }
 
+    // the same statements as include(), each one batched over all the films
     @Override
-    public Optional<Film> update(Film film) {
-        log.info("------------- * Start * FilmDbStorage * update() -------------");
-        int rowsAffected = jdbc.update(connection -> {
-            // film
-            log.info("* Info * FilmDbStorage, method update(), film = {}", film);
-
-            PreparedStatement stmtFindFilm = connection.prepareStatement(FIND_BY_ID_QUERY);
-            log.info("* Info * FilmDbStorage, method update(), PreparedStatement ready");
-            stmtFindFilm.setLong(1, film.getId());
-
-            ResultSet rsFind = stmtFindFilm.executeQuery();
-            log.info("* Info * FilmDbStorage, method update(), ResultSet ready");
-            if (!rsFind.next()) {
-                throw new NotFoundException("Film`s id is not found");
-            }
-
-            log.info("* Info * FIND_BY_ID_QUERY is complete");
-
-            PreparedStatement stmtUpdateFilm = connection.prepareStatement(UPDATE_FILM_QUERY);
-
-            stmtUpdateFilm.setString(1, film.getName());
-            stmtUpdateFilm.setString(2, film.getDescription());
-
-            LocalDateTime releaseDate = film.getReleaseDate().atStartOfDay();
-
-            stmtUpdateFilm.setObject(3, releaseDate);
-            stmtUpdateFilm.setInt(4, film.getDuration());
-            stmtUpdateFilm.setLong(5, film.getId());
-
-            int rowsUpdated = stmtUpdateFilm.executeUpdate();
-
-            // mpa
-            if (film.getMpa() != null) {
-                int mpaId = film.getMpa().getId();
-
-                MotionPictureAA mpa = film.getMpa();
-
-                log.info("* Info * FilmDbStorage, method update(), mpa = {}", mpa);
-
-                PreparedStatement stmtFindMpa = connection.prepareStatement(FIND_MPA_NAME_QUERY);
+    @Transactional
+    public List<Film> includeAll(List<Film> films) {
+        log.info("------------- * Start / Finish * FilmDbStorage * includeAll() -------------");
+        if (films.isEmpty()) {
+            return films;
+        }
 
-                stmtFindMpa.setInt(1, mpaId);
+        films.forEach(this::resolveReferences);
+        KeyHolder keyHolder = new GeneratedKeyHolder();
 
-                ResultSet rs = stmtFindMpa.executeQuery();
+        try {
+            jdbc.batchUpdate(connection -> connection.prepareStatement(INSERT_FILM_QUERY,
+                    Statement.RETURN_GENERATED_KEYS), new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    setFilmValues(ps, films.get(i));
+                }
 
-                if (rs.next()) {
-                    mpa.setName(rs.getString("name"));
-                } else {
-                    throw new NotFoundException("Mpa`s id is not found");
+                @Override
+                public int getBatchSize() {
+                    return films.size();
                 }
+            }, keyHolder);
+        } catch (DataAccessException e) {
+            throw new SQLProblemException("include films failed");
+        }
 
-                PreparedStatement stmtUpdateMpa = connection.prepareStatement(UPDATE_MPA_QUERY);
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
 
-                stmtUpdateMpa.setInt(1, mpaId);
-                stmtUpdateMpa.setLong(2, film.getId());
+        if (keys.size() != films.size()) {
+            throw new NotFoundException("id is not found");
+        }
 
-                int totalRowUpdated = stmtUpdateMpa.executeUpdate();
+        for (int i = 0; i < films.size(); i++) {
+            films.get(i).setId(((Number) keys.get(i).values().iterator().next()).longValue());
+        }
 
-                if (totalRowUpdated == 0) {
-                    throw new SQLException("Данные не обновлены");
-                }
-            }
+        insertReferences(films);
+        return films;
+    }
 
-            // genres
-            Set<Genre> genres = film.getGenres();
+    // one transaction: the film row, the mpa and only the genres that were added or removed
+    @Override
+    @Transactional
+    public Optional<Film> update(Film film) {
+        log.info("------------- * Start * FilmDbStorage * update() -------------");
+        // names come from the registry, an unknown mpa or genre fails before anything is written
+        resolveReferences(film);
+        log.info("* Info * FilmDbStorage, method update(), film = {}", film);
 
-            log.info("* Info * FilmDbStorage, method update(), genres = {}", film.getGenres());
+        int rowsAffected = jdbc.update(UPDATE_FILM_QUERY,
+                film.getName(),
+                film.getDescription(),
+                film.getReleaseDate().atStartOfDay(),
+                film.getDuration(),
+                film.getId());
 
-            PreparedStatement stmtFindGenre = connection.prepareStatement(FIND_GENRES_NAME_QUERY);
-            PreparedStatement stmtUpdateGenres = connection.prepareStatement(UPDATE_GENRES_QUERY);
+        if (rowsAffected == 0) {
+            throw new NotFoundException("Film`s id is not found");
+        }
 
-            for (Genre genre : genres) {
-                stmtFindGenre.setInt(1, genre.getId());
+        // mpa
+        if (film.getMpa() != null && film.getMpa().getId() != null) {
+            jdbc.update(MERGE_FILMS_MPA_QUERY, film.getId(), film.getMpa().getId());
+        }
 
-                ResultSet rs = stmtFindGenre.executeQuery();
+        // genres
+        Set<Integer> storedGenreIds = new HashSet<>(jdbc.queryForList(FIND_GENRE_IDS_OF_FILM_QUERY, Integer.class,
+                film.getId()));
+        List<Object[]> insertArgs = new ArrayList<>();
 
-                if (rs.next()) {
-                    genre.setName(rs.getString("name"));
-                } else {
-                    throw new NotFoundException("Genre id is not found");
-                }
+        for (Genre genre : film.getGenres()) {
+            if (!storedGenreIds.remove(genre.getId())) {
+                insertArgs.add(new Object[]{film.getId(), genre.getId()});
+            }
+        }
 
-                stmtUpdateGenres.setLong(1, film.getId());
-                stmtUpdateGenres.setInt(2, genre.getId());
-                int totalRowsUpdated = stmtUpdateGenres.executeUpdate();
+        // what is left of the stored genres is not in the film any more
+        List<Object[]> deleteArgs = new ArrayList<>(storedGenreIds.size());
 
-                if (totalRowsUpdated == 0) {
-                    throw new SQLException("Данные не обновлены");
-                }
-            }
+        for (Integer genreId : storedGenreIds) {
+            deleteArgs.add(new Object[]{film.getId(), genreId});
+        }
 
-            return stmtUpdateFilm;
-        });
+        if (!deleteArgs.isEmpty()) {
+            jdbc.batchUpdate(DELETE_FILMS_GENRE_QUERY, deleteArgs);
+        }
 
-        if (rowsAffected == 0) {
-            throw new NotFoundException("Id is not found");
+        if (!insertArgs.isEmpty()) {
+            jdbc.batchUpdate(INSERT_FILMS_GENRE_QUERY, insertArgs);
         }
 
         log.info("* Info * FilmDbStorage, method update(), return film = {}", film);
@@ -337,53 +392,169 @@ public class FilmDbStorage implements FilmStorage {
 
     // CRUDs of likes
     @Override
+    @Transactional
     public void addLike(Long filmId, Long userId) {
         int rowsAffected = jdbc.update(INSERT_LIKE_QUERY, filmId, userId);
 
         if (rowsAffected == 0) {
             throw new RuntimeException("Лайк не добавлен");
         }
+
+        jdbc.update(INCREMENT_LIKE_COUNT_QUERY, filmId);
     }
 
     @Override
+    @Transactional
     public void deleteLike(Long filmId, Long userId) {
         int rowsAffected = jdbc.update(DELETE_LIKE_QUERY, filmId, userId);
 
         if (rowsAffected == 0) {
             throw new RuntimeException("Лайк не удалён");
         }
+
+        jdbc.update(DECREMENT_LIKE_COUNT_QUERY, filmId);
     }
 
-    // read populars
+    // like_count follows in the same transaction, one batch for the likes and one for the counters
     @Override
-    public List<Film> getMostPopular(long count) {
-        log.info("------------- * Start / Finish * FilmDbStorage * getMostPopular() -------------");
-        List<Film> films;
+    @Transactional
+    public void addLikes(List<Like> likes) {
+        log.info("------------- * Start / Finish * FilmDbStorage * addLikes() -------------");
+        if (likes.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> likeArgs = new ArrayList<>(likes.size());
+        List<Object[]> countArgs = new ArrayList<>(likes.size());
+
+        for (Like like : likes) {
+            likeArgs.add(new Object[]{like.getFilmId(), like.getUserId()});
+            countArgs.add(new Object[]{like.getFilmId()});
+        }
 
         try {
-            films = jdbc.query(FIND_MOST_POPULAR_QUERY, filmRowMapper, count);
-            for (Film film : films) {
-                if (film != null) {
-                    long filmId = film.getId();
+            jdbc.batchUpdate(INSERT_LIKE_QUERY, likeArgs);
+            jdbc.batchUpdate(INCREMENT_LIKE_COUNT_QUERY, countArgs);
+        } catch (DataAccessException e) {
+            throw new SQLProblemException("add likes failed");
+        }
+    }
 
-                    try {
-                        MotionPictureAA mpa = jdbc.queryForObject(FIND_FILMS_MPA_QUERY, mpasRowMapper, filmId);
+    // like_count moves only for the likes that were really inserted or deleted
+    @Override
+    @Transactional
+    public Map<Long, LikesChange> mergeLikes(List<Like> added, List<Like> removed) {
+        log.info("------------- * Start / Finish * FilmDbStorage * mergeLikes() -------------");
+        Set<Long> filmIds = new HashSet<>();
+        List<Object[]> incrementArgs = new ArrayList<>();
+        List<Object[]> decrementArgs = new ArrayList<>();
+        Map<Long, Long> deltas = new HashMap<>();
+
+        if (!added.isEmpty()) {
+            List<Object[]> likeArgs = new ArrayList<>(added.size());
+
+            for (Like like : added) {
+                likeArgs.add(new Object[]{like.getFilmId(), like.getUserId(), like.getFilmId(), like.getUserId()});
+                filmIds.add(like.getFilmId());
+            }
 
-                        film.setMpa(mpa);
-                    } catch (EmptyResultDataAccessException e) {
-                        film.setMpa(null);
-                    }
+            int[] rowsInserted = jdbc.batchUpdate(INSERT_LIKE_IF_ABSENT_QUERY, likeArgs);
 
-                    Set<Genre> genres = new HashSet<>(jdbc.query(FIND_FILMS_GENRES_QUERY, genreRowMapper, filmId));
+            for (int i = 0; i < rowsInserted.length; i++) {
+                if (rowsInserted[i] > 0) {
+                    incrementArgs.add(new Object[]{added.get(i).getFilmId()});
+                    deltas.merge(added.get(i).getFilmId(), 1L, Long::sum);
+                }
+            }
+        }
+
+        if (!removed.isEmpty()) {
+            List<Object[]> likeArgs = new ArrayList<>(removed.size());
 
-                    film.setGenres(genres);
+            for (Like like : removed) {
+                likeArgs.add(new Object[]{like.getFilmId(), like.getUserId()});
+                filmIds.add(like.getFilmId());
+            }
 
-                    Set<Long> likes = new HashSet<>(jdbc.query(FIND_FILMS_LIKES_QUERY, likesMapper, filmId));
+            int[] rowsDeleted = jdbc.batchUpdate(DELETE_LIKE_QUERY, likeArgs);
 
-                    film.setLikes(likes);
+            for (int i = 0; i < rowsDeleted.length; i++) {
+                if (rowsDeleted[i] > 0) {
+                    decrementArgs.add(new Object[]{removed.get(i).getFilmId()});
+                    deltas.merge(removed.get(i).getFilmId(), -1L, Long::sum);
                 }
             }
+        }
+
+        if (!incrementArgs.isEmpty()) {
+            jdbc.batchUpdate(INCREMENT_LIKE_COUNT_QUERY, incrementArgs);
+        }
 
+        if (!decrementArgs.isEmpty()) {
+            jdbc.batchUpdate(DECREMENT_LIKE_COUNT_QUERY, decrementArgs);
+        }
+
+        Map<Long, LikesChange> changes = new HashMap<>();
+
+        if (!filmIds.isEmpty()) {
+            namedJdbc.query(FIND_LIKE_COUNTS_OF_FILMS_QUERY, Map.of("ids", filmIds), (RowCallbackHandler) rs -> {
+                long filmId = rs.getLong("id");
+                changes.put(filmId, new LikesChange(rs.getLong("like_count"), deltas.getOrDefault(filmId, 0L)));
+            });
+        }
+
+        return changes;
+    }
+
+    // keyset page: ids of the users who liked the film, greater than after, ascending
+    @Override
+    public List<Long> findLikes(Long filmId, long after, int limit) {
+        log.info("------------- * Start / Finish * FilmDbStorage * findLikes() -------------");
+        return jdbc.query(FIND_LIKES_PAGE_QUERY, likesMapper, filmId, after, limit);
+    }
+
+    @Override
+    public Map<Long, Long> getLikesCounts() {
+        log.info("------------- * Start / Finish * FilmDbStorage * getLikesCounts() -------------");
+        Map<Long, Long> likesCounts = new HashMap<>();
+
+        jdbc.query(FIND_LIKES_COUNTS_QUERY, (RowCallbackHandler) rs ->
+                likesCounts.put(rs.getLong("film_id"), rs.getLong("likes")));
+
+        return likesCounts;
+    }
+
+    @Override
+    public Map<Long, LongIdSet> getAllLikes() {
+        log.info("------------- * Start / Finish * FilmDbStorage * getAllLikes() -------------");
+        Map<Long, LongIdSet> likedFilms = new HashMap<>();
+
+        jdbc.query(FIND_ALL_LIKES_QUERY, (RowCallbackHandler) rs ->
+                likedFilms.computeIfAbsent(rs.getLong("user_id"), userId -> new LongIdSet())
+                        .addId(rs.getLong("film_id")));
+        return likedFilms;
+    }
+
+    @Override
+    public Map<Long, List<Instant>> getLikeTimesSince(Instant since) {
+        log.info("------------- * Start / Finish * FilmDbStorage * getLikeTimesSince() -------------");
+        Map<Long, List<Instant>> likeTimes = new HashMap<>();
+
+        jdbc.query(FIND_LIKE_TIMES_SINCE_QUERY, (RowCallbackHandler) rs ->
+                likeTimes.computeIfAbsent(rs.getLong("film_id"), filmId -> new ArrayList<>())
+                        .add(rs.getTimestamp("created_at").toInstant()), Timestamp.from(since));
+        return likeTimes;
+    }
+
+    // read populars
+    @Override
+    public List<Film> getMostPopular(long count) {
+        log.info("------------- * Start / Finish * FilmDbStorage * getMostPopular() -------------");
+        List<Film> films;
+
+        try {
+            films = jdbc.query(FIND_MOST_POPULAR_QUERY, filmRowMapper, count);
+            hydrate(films);
         } catch (DataAccessException e) {
             throw new NotFoundException("Films not found");
         }
@@ -394,65 +565,121 @@ public class FilmDbStorage implements FilmStorage {
     @Override
     public Collection<Genre> findAllGenres() {
         log.info("------------- * Start / Finish * FilmDbStorage * findAllGenres() -------------");
-
-        GenreRowMapper genreRowMapper = new GenreRowMapper();
-
-        List<Genre> genres = jdbc.query(FIND_ALL_GENRES_QUERY, genreRowMapper);
+        List<Genre> genres = referenceData.findAllGenres();
 
         if (CollectionUtils.isEmpty(genres)) {
             throw new NotFoundException("There are no data records in the table");
         }
 
-        for (Genre genre : genres) {
-            log.info("* FilmDbStorage * findAllGenres() {} ", genre);
-        }
-
         return genres;
     }
 
     @Override
     public Optional<Genre> findGenreById(Integer genreId) {
         log.info("------------- * Start / Finish * FilmDbStorage * findGenreById() -------------");
-
-        try {
-            return Optional.ofNullable(jdbc.queryForObject(FIND_BY_ID_GENRE_QUERY, genreRowMapper, genreId));
-        } catch (DataAccessException e) {
-            throw new NotFoundException("not found");
-        } catch (Throwable e) {
-            throw new NotFoundException("search failed");
-        }
+        return Optional.of(referenceData.getGenre(genreId));
     }
 
     // mpa's
     @Override
     public Collection<MotionPictureAA> findAllMPAs() {
         log.info("------------- * Start / Finish * FilmDbStorage * findAllMPAs() -------------");
-
-        MpasRowMapper mpasRowMapper = new MpasRowMapper();
-
-        List<MotionPictureAA> listOfMpa = jdbc.query(FIND_ALL_MPAS_QUERY, mpasRowMapper);
+        List<MotionPictureAA> listOfMpa = referenceData.findAllMPAs();
 
         if (CollectionUtils.isEmpty(listOfMpa)) {
             throw new NotFoundException("There are no data records in the table");
         }
 
-        for (MotionPictureAA motionPictureAA : listOfMpa) {
-            log.info("* FilmDbStorage * findAllMPAs() {} ", motionPictureAA);
-        }
-
         return listOfMpa;
     }
 
     @Override
     public Optional<MotionPictureAA> findMPAById(Integer mpaId) {
         log.info("------------- * Start / Finish * FilmDbStorage * findMPAById() -------------");
+        return Optional.of(referenceData.getMPA(mpaId));
+    }
 
-        try {
-            return Optional.ofNullable(jdbc.queryForObject(FIND_BY_ID_MPAS_QUERY, mpasRowMapper, mpaId));
-        } catch (DataAccessException e) {
-            throw new NotFoundException("not found");
-        } catch (Throwable e) {
-            throw new NotFoundException("search failed");
+    private void resolveReferences(Film film) {
+        if (film.getMpa() != null && film.getMpa().getId() != null) {
+            film.setMpa(referenceData.getMPA(film.getMpa().getId()));
+        }
+
+        film.setGenres(referenceData.resolveGenres(film.getGenres()));
+    }
+
+    // mpa and genres of films that already have their ids, one batch each
+    private void insertReferences(List<Film> films) {
+        List<Object[]> mpaArgs = new ArrayList<>();
+        List<Object[]> genreArgs = new ArrayList<>();
+
+        for (Film film : films) {
+            if (film.getMpa() != null && film.getMpa().getId() != null) {
+                mpaArgs.add(new Object[]{film.getId(), film.getMpa().getId()});
+            }
+
+            for (Genre genre : film.getGenres()) {
+                genreArgs.add(new Object[]{film.getId(), genre.getId()});
+            }
         }
+
+        if (!mpaArgs.isEmpty()) {
+            try {
+                jdbc.batchUpdate(INSERT_FILMS_MPA_QUERY, mpaArgs);
+            } catch (DataAccessException e) {
+                throw new SQLProblemException("problem in INSERT_FILMS_MPA_QUERY");
+            }
+        }
+
+        if (!genreArgs.isEmpty()) {
+            try {
+                jdbc.batchUpdate(INSERT_FILMS_GENRE_QUERY, genreArgs);
+            } catch (DataAccessException e) {
+                throw new SQLProblemException("problem in INSERT_FILMS_GENRE_QUERY");
+            }
+        }
+    }
+
+    private static void setFilmValues(PreparedStatement ps, Film film) throws SQLException {
+        ps.setString(1, film.getName());
+        ps.setString(2, film.getDescription());
+        LocalDateTime releaseDate = film.getReleaseDate().atStartOfDay();
+        ps.setObject(3, releaseDate);
+        ps.setInt(4, film.getDuration());
+    }
+
+    // hydration: MPA and genres for a whole list of films in two set-based queries per chunk,
+    // they are the shared instances of the ReferenceDataRegistry;
+    // likes are not loaded, the films carry like_count and findLikes() pages through them
+    private void hydrate(List<Film> films) {
+        for (int from = 0; from < films.size(); from += HYDRATION_CHUNK_SIZE) {
+            hydrateChunk(films.subList(from, Math.min(from + HYDRATION_CHUNK_SIZE, films.size())));
+        }
+    }
+
+    private void hydrateChunk(List<Film> films) {
+        Map<Long, Film> filmsById = new HashMap<>();
+
+        for (Film film : films) {
+            film.setMpa(null);
+            film.setGenres(new LinkedHashSet<>());
+            filmsById.put(film.getId(), film);
+        }
+
+        if (filmsById.isEmpty()) {
+            return;
+        }
+
+        Map<String, Object> params = Map.of("ids", filmsById.keySet());
+
+        namedJdbc.query(FIND_MPAS_OF_FILMS_QUERY, params, (RowCallbackHandler) rs -> {
+            Film film = filmsById.get(rs.getLong("film_id"));
+
+            if (film.getMpa() == null) {
+                film.setMpa(referenceData.getMPA(rs.getInt("motion_picture_aa_id")));
+            }
+        });
+
+        namedJdbc.query(FIND_GENRES_OF_FILMS_QUERY, params, (RowCallbackHandler) rs ->
+                filmsById.get(rs.getLong("film_id")).getGenres().add(referenceData.getGenre(rs.getInt("genre_id"))));
     }
-}
\ No newline at end of file
+}
@@ -2,29 +2,91 @@ package ru.yandex.practicum.storage;
 
 import ru.yandex.practicum.model.Film;
 import ru.yandex.practicum.model.Genre;
+import ru.yandex.practicum.model.Like;
+import ru.yandex.practicum.model.LikesChange;
+import ru.yandex.practicum.model.LongIdSet;
 import ru.yandex.practicum.model.MotionPictureAA;
 
+import java.time.Instant;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface FilmStorage {
     // films CRUDs
     public Collection<Film> findAll();
 
+    public List<Film> findPage(long after, int limit);
+
     public Optional<Film> findById(Long id);
 
+    // every film with its mpa and genres, for the in-process indexes
+    public List<Film> findAllDetails();
+
+    // the film with its mpa, genres and like count, without the likes themselves
+    public Optional<Film> findDetailsById(Long id);
+
+    // a probe of the primary key, nothing is loaded
+    public boolean existsById(Long id);
+
+    // ids of all the films, for the id filter
+    public LongIdSet findAllIds();
+
+    // films in the order of the given ids, unknown ids are skipped
+    public List<Film> findByIds(List<Long> ids);
+
     public Film include(Film film);
 
     public Optional<Film> update(Film film);
 
     public Optional<Film> delete(Film film);
 
+    // bulk include, the given films get their ids
+    public default List<Film> includeAll(List<Film> films) {
+        films.forEach(this::include);
+        return films;
+    }
+
     // CRUDs of likes
     public void addLike(Long filmId, Long userId);
 
     public void deleteLike(Long filmId, Long userId);
 
+    public default void addLikes(List<Like> likes) {
+        likes.forEach(like -> addLike(like.getFilmId(), like.getUserId()));
+    }
+
+    // keyset page of the ids of the users who liked the film
+    public List<Long> findLikes(Long filmId, long after, int limit);
+
+    // likes / unlikes that may already be in place, those are skipped;
+    // film id -> like count afterwards and its change, for the films they touched
+    public default Map<Long, LikesChange> mergeLikes(List<Like> added, List<Like> removed) {
+        added.forEach(like -> addLike(like.getFilmId(), like.getUserId()));
+        removed.forEach(like -> deleteLike(like.getFilmId(), like.getUserId()));
+        Map<Long, Long> allLikesCounts = getLikesCounts();
+        Map<Long, Long> deltas = new HashMap<>();
+
+        added.forEach(like -> deltas.merge(like.getFilmId(), 1L, Long::sum));
+        removed.forEach(like -> deltas.merge(like.getFilmId(), -1L, Long::sum));
+
+        Map<Long, LikesChange> changes = new HashMap<>();
+        deltas.forEach((filmId, delta) ->
+                changes.put(filmId, new LikesChange(allLikesCounts.getOrDefault(filmId, 0L), delta)));
+        return changes;
+    }
+
+    // film id -> number of likes, for films with at least one like
+    public Map<Long, Long> getLikesCounts();
+
+    // user id -> ids of the films the user liked, for every user with a like
+    public Map<Long, LongIdSet> getAllLikes();
+
+    // film id -> times of the film's likes made since the given moment
+    public Map<Long, List<Instant>> getLikeTimesSince(Instant since);
+
     // read populars
     public List<Film> getMostPopular(long count);
 
@@ -7,16 +7,23 @@ import org.springframework.stereotype.Component;
 import ru.yandex.practicum.exception.NotFoundException;
 import ru.yandex.practicum.model.Film;
 import ru.yandex.practicum.model.Genre;
+import ru.yandex.practicum.model.LongIdSet;
 import ru.yandex.practicum.model.MotionPictureAA;
 
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 @Getter
 @Slf4j
 @Qualifier("inMemoryFilmStorage")
 public class InMemoryFilmStorage implements FilmStorage {
-    private final Map<Long, Film> films = new HashMap<>();
+    // safe for concurrent requests: per-bin locking of the map, ids from a counter, likes in LongIdSet
+    private final ConcurrentMap<Long, Film> films = new ConcurrentHashMap<>();
+    private final AtomicLong lastId = new AtomicLong();
 
     // films CRUDs
     @Override
@@ -25,9 +32,52 @@ public class InMemoryFilmStorage implements FilmStorage {
         return List.copyOf(films.values());
     }
 
+    @Override
+    public List<Film> findPage(long after, int limit) {
+        return films.values()
+                .stream()
+                .filter(film -> film.getId() > after)
+                .sorted(Comparator.comparing(Film::getId))
+                .limit(limit)
+                .toList();
+    }
+
     @Override
     public Optional<Film> findById(Long filmId) {
-        return Optional.of(films.get(filmId));
+        return Optional.ofNullable(films.get(filmId));
+    }
+
+    @Override
+    public Optional<Film> findDetailsById(Long filmId) {
+        return findById(filmId).map(film -> {
+            film.setLikeCount((long) film.getLikes().size());
+            return film;
+        });
+    }
+
+    @Override
+    public boolean existsById(Long filmId) {
+        return filmId != null && films.containsKey(filmId);
+    }
+
+    @Override
+    public LongIdSet findAllIds() {
+        LongIdSet ids = new LongIdSet();
+        films.keySet().forEach(ids::addId);
+        return ids;
+    }
+
+    @Override
+    public List<Film> findAllDetails() {
+        return List.copyOf(films.values());
+    }
+
+    @Override
+    public List<Film> findByIds(List<Long> ids) {
+        return ids.stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .toList();
     }
 
     @Override
@@ -44,10 +94,8 @@ public class InMemoryFilmStorage implements FilmStorage {
         Long filmId = film.getId();
         log.trace("method * update(), Field filmId has been created");
 
-        if (films.containsKey(filmId)) {
-            Film oldFilm = films.get(filmId);
-            log.trace("method * update(), Field oldFilm has been created");
-
+        // the fields are copied under the lock of the film's bin, so concurrent updates of one film don't interleave
+        Film updatedFilm = films.computeIfPresent(filmId, (id, oldFilm) -> {
             oldFilm.setReleaseDate(film.getReleaseDate());
             log.trace("method * update(), Set the release date");
             oldFilm.setName(film.getName());
@@ -56,7 +104,11 @@ public class InMemoryFilmStorage implements FilmStorage {
             log.trace("method * update(), Set the duration");
             oldFilm.setDescription(film.getDescription());
             log.trace("method * update(), Set the description");
-            return Optional.of(oldFilm);
+            return oldFilm;
+        });
+
+        if (updatedFilm != null) {
+            return Optional.of(updatedFilm);
         }
 
         log.error("method * update(), Film with this ID is not found");
@@ -70,18 +122,64 @@ public class InMemoryFilmStorage implements FilmStorage {
     }
 
     // CRUDs of likes
-    public Set<Long> findLikesByFilmId(Long filmId) {
-        return films.get(filmId).getLikes();
+    public LongIdSet findLikesByFilmId(Long filmId) {
+        Film film = films.get(filmId);
+
+        if (film == null) {
+            throw new NotFoundException("Фильм с ID = " + filmId + " не найден");
+        }
+
+        return film.getLikes();
+    }
+
+    @Override
+    public List<Long> findLikes(Long filmId, long after, int limit) {
+        return findLikesByFilmId(filmId).stream()
+                .filter(userId -> userId > after)
+                .limit(limit)
+                .toList();
     }
 
     @Override
     public void addLike(Long filmId, Long userId) {
-        findLikesByFilmId(filmId).add(userId);
+        findLikesByFilmId(filmId).addId(userId);
     }
 
     @Override
     public void deleteLike(Long filmId, Long userId) {
-        findLikesByFilmId(filmId).remove(userId);
+        findLikesByFilmId(filmId).removeId(userId);
+    }
+
+    @Override
+    public Map<Long, Long> getLikesCounts() {
+        Map<Long, Long> likesCounts = new HashMap<>();
+
+        for (Film film : films.values()) {
+            if (!film.getLikes().isEmpty()) {
+                likesCounts.put(film.getId(), (long) film.getLikes().size());
+            }
+        }
+
+        return likesCounts;
+    }
+
+    @Override
+    public Map<Long, LongIdSet> getAllLikes() {
+        Map<Long, LongIdSet> likedFilms = new HashMap<>();
+
+        for (Film film : films.values()) {
+            for (Long userId : film.getLikes()) {
+                likedFilms.computeIfAbsent(userId, id -> new LongIdSet()).addId(film.getId());
+            }
+        }
+
+        return likedFilms;
+    }
+
+    // likes kept in memory have no time
+    @Override
+    public Map<Long, List<Instant>> getLikeTimesSince(Instant since) {
+        return Map.of();
     }
 
     // read populars
@@ -126,11 +224,6 @@ public class InMemoryFilmStorage implements FilmStorage {
     // create next ID
     private long getNextId() {
         log.trace("method * getNextId(), Creating an ID");
-        long currentMaxId = films.keySet()
-                .stream()
-                .mapToLong(id -> id)
-                .max()
-                .orElse(0);
-        return ++currentMaxId;
+        return lastId.incrementAndGet();
     }
 }
@@ -5,16 +5,23 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.exception.NotFoundException;
+import ru.yandex.practicum.index.FriendGraph;
+import ru.yandex.practicum.model.LongIdSet;
 import ru.yandex.practicum.model.User;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 @Getter
 @Slf4j
 @Qualifier("inMemoryUserStorage")
 public class InMemoryUserStorage implements UserStorage {
-    private final Map<Long, User> users = new HashMap<>();
+    // safe for concurrent requests: per-bin locking of the map, ids from a counter, friends in LongIdSet
+    private final ConcurrentMap<Long, User> users = new ConcurrentHashMap<>();
+    private final AtomicLong lastId = new AtomicLong();
 
     // users CRUDs
     @Override
@@ -23,9 +30,41 @@ public class InMemoryUserStorage implements UserStorage {
         return List.copyOf(users.values());
     }
 
+    @Override
+    public List<User> findPage(long after, int limit) {
+        return users.values()
+                .stream()
+                .filter(user -> user.getId() > after)
+                .sorted(Comparator.comparing(User::getId))
+                .limit(limit)
+                .map(this::withFriendCount)
+                .toList();
+    }
+
     @Override
     public Optional<User> findById(Long userId) {
-        return Optional.of(users.get(userId));
+        return Optional.ofNullable(users.get(userId)).map(this::withFriendCount);
+    }
+
+    @Override
+    public List<User> findByIds(List<Long> ids) {
+        return ids.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .map(this::withFriendCount)
+                .toList();
+    }
+
+    @Override
+    public boolean existsById(Long userId) {
+        return userId != null && users.containsKey(userId);
+    }
+
+    @Override
+    public LongIdSet findAllIds() {
+        LongIdSet ids = new LongIdSet();
+        users.keySet().forEach(ids::addId);
+        return ids;
     }
 
     @Override
@@ -42,9 +81,8 @@ public class InMemoryUserStorage implements UserStorage {
         Long userId = user.getId();
         log.trace("method * update(), Field userId has been created");
 
-        if (users.containsKey(userId)) {
-            User oldUser = users.get(userId);
-            log.trace("method * update(), Field oldUser has been created");
+        // the fields are copied under the lock of the user's bin, so concurrent updates of one user don't interleave
+        User updatedUser = users.computeIfPresent(userId, (id, oldUser) -> {
             oldUser.setBirthday(user.getBirthday());
             log.trace("method * update(), Set the birthday");
             oldUser.setLogin(user.getLogin());
@@ -53,63 +91,119 @@ public class InMemoryUserStorage implements UserStorage {
             log.trace("method * update(), Set the name");
             oldUser.setEmail(user.getEmail());
             log.trace("method * update(), Set the email");
-            return Optional.of(oldUser);
+            return oldUser;
+        });
+
+        if (updatedUser != null) {
+            return Optional.of(updatedUser);
         }
 
         log.error("method * update(), User with this ID is not found");
         throw new NotFoundException("Пользователь с ID = " + userId + " не найден");
     }
 
-    public void delete(User user) {
+    // likes are kept by the film storage here, nothing to recount
+    @Override
+    public Map<Long, Long> delete(User user) {
         users.remove(user.getId());
+        return Map.of();
     }
 
     // CRUDs of friendship
     @Override
-    public List<User> getFriends(Long id) {
-        return  findAll().stream()
-                .filter(user -> getFriendsIdes(id).contains(user.getId()))
+    public List<User> getFriends(Long id, long after, int limit) {
+        return getFriendsIdes(id).stream()
+                .filter(friendId -> friendId > after)
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .limit(limit)
+                .map(this::withFriendCount)
                 .toList();
     }
 
-    public Set<Long> getFriendsRequests(Long id) {
-        return users.get(id).getFriendshipRequests();
+    public LongIdSet getFriendsRequests(Long id) {
+        return getUser(id).getFriendshipRequests();
     }
 
     @Override
-    public Set<Long> getFriendsIdes(Long id) {
-        return users.get(id).getFriendshipConfirmed();
+    public LongIdSet getFriendsIdes(Long id) {
+        return getUser(id).getFriendshipConfirmed();
     }
 
     @Override
     public List<User> getMutualFriends(Long id, Long otherId) {
-        Set<Long> friends = getFriendsIdes(id);
-        Set<Long> otherFriends = getFriendsIdes(otherId);
-
-        return findAll().stream()
-                .filter(user -> friends.contains(user.getId()))
-                .filter(user -> otherFriends.contains(user.getId()))
+        // ascending ids, so the users come out ordered by id
+        return getFriendsIdes(id).intersect(getFriendsIdes(otherId))
+                .stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
                 .toList();
     }
 
+    @Override
+    public Map<Long, Long> getMutualFriendCounts(Long id, List<Long> otherIds) {
+        LongIdSet friendsIdes = getFriendsIdes(id);
+        Map<Long, Long> counts = new LinkedHashMap<>();
+
+        for (Long otherId : otherIds) {
+            counts.put(otherId, (long) friendsIdes.intersectionSize(getFriendsIdes(otherId)));
+        }
+
+        return counts;
+    }
+
+    @Override
+    public List<Long> getFriendSuggestions(Long id, int limit) {
+        getUser(id);
+        return FriendGraph.suggest(id, limit, userId -> {
+            User user = users.get(userId);
+            return user != null ? user.getFriendshipConfirmed() : new LongIdSet();
+        });
+    }
+
+    @Override
+    public Map<Long, LongIdSet> getAllFriendsIdes() {
+        Map<Long, LongIdSet> friendsIdes = new HashMap<>();
+
+        for (User user : users.values()) {
+            if (!user.getFriendshipConfirmed().isEmpty()) {
+                LongIdSet copy = new LongIdSet();
+                copy.addAll(user.getFriendshipConfirmed());
+                friendsIdes.put(user.getId(), copy);
+            }
+        }
+
+        return friendsIdes;
+    }
+
     @Override
     public void addFriend(Long id, Long friendId) {
-        getFriendsRequests(id).add(friendId);
+        getFriendsRequests(id).addId(friendId);
     }
 
     @Override
     public void deleteFriend(Long id, Long friendId) {
-        getFriendsIdes(id).remove(friendId);
+        getFriendsIdes(id).removeId(friendId);
+    }
+
+    private User withFriendCount(User user) {
+        user.setFriendCount((long) user.getFriendshipConfirmed().size());
+        return user;
+    }
+
+    private User getUser(Long id) {
+        User user = users.get(id);
+
+        if (user == null) {
+            throw new NotFoundException("Пользователь с ID = " + id + " не найден");
+        }
+
+        return user;
     }
 
     // create next ID
     private long getNextId() {
         log.trace("method * getNextId(), Creating an ID");
-        long currentMaxId = users.keySet()
-                .stream()
-                .mapToLong(id -> id)
-                .max()
-                .orElse(0);
-        return ++currentMaxId;
+        return lastId.incrementAndGet();
     }
 }
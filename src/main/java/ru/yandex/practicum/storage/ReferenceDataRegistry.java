@@ -0,0 +1,114 @@
+package ru.yandex.practicum.storage;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.exception.NotFoundException;
+import ru.yandex.practicum.model.Genre;
+import ru.yandex.practicum.model.MotionPictureAA;
+import ru.yandex.practicum.storage.mappers.GenreRowMapper;
+import ru.yandex.practicum.storage.mappers.MpasRowMapper;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+// Genres and MPA ratings, read once from "genre" / "motion_picture_aa" at startup, so a broken or empty
+// reference table fails the start and not the first request.
+// The instances are immutable and shared by every film that refers to them (flyweights).
+@Component
+@Slf4j
+public class ReferenceDataRegistry {
+    private static final String FIND_ALL_GENRES_QUERY = "SELECT * FROM genre ORDER BY id";
+    private static final String FIND_ALL_MPAS_QUERY = "SELECT * FROM motion_picture_aa ORDER BY id";
+
+    private final JdbcTemplate jdbc;
+    private final GenreRowMapper genreRowMapper;
+    private final MpasRowMapper mpasRowMapper;
+    private Snapshot snapshot;
+
+    @Autowired
+    public ReferenceDataRegistry(JdbcTemplate jdbc, GenreRowMapper genreRowMapper, MpasRowMapper mpasRowMapper) {
+        this.jdbc = jdbc;
+        this.genreRowMapper = genreRowMapper;
+        this.mpasRowMapper = mpasRowMapper;
+    }
+
+    // genres
+    public List<Genre> findAllGenres() {
+        return snapshot.genres();
+    }
+
+    public Optional<Genre> findGenreById(Integer genreId) {
+        return genreId == null ? Optional.empty() : Optional.ofNullable(snapshot.genresById().get(genreId));
+    }
+
+    public Genre getGenre(Integer genreId) {
+        return findGenreById(genreId).orElseThrow(() -> new NotFoundException("genre is not found"));
+    }
+
+    // the shared instances in the order of their ids, genres without an id are skipped
+    public Set<Genre> resolveGenres(Set<Genre> genres) {
+        Set<Genre> resolvedGenres = new LinkedHashSet<>();
+
+        if (genres == null) {
+            return resolvedGenres;
+        }
+
+        genres.stream()
+                .map(Genre::getId)
+                .filter(Objects::nonNull)
+                .sorted()
+                .distinct()
+                .map(this::getGenre)
+                .forEach(resolvedGenres::add);
+        return resolvedGenres;
+    }
+
+    // mpa's
+    public List<MotionPictureAA> findAllMPAs() {
+        return snapshot.mpas();
+    }
+
+    public Optional<MotionPictureAA> findMPAById(Integer mpaId) {
+        return mpaId == null ? Optional.empty() : Optional.ofNullable(snapshot.mpasById().get(mpaId));
+    }
+
+    public MotionPictureAA getMPA(Integer mpaId) {
+        return findMPAById(mpaId).orElseThrow(() -> new NotFoundException("mpa is not found"));
+    }
+
+    @PostConstruct
+    void load() {
+        log.info("------------- * Start / Finish * ReferenceDataRegistry * load() -------------");
+        Map<Integer, Genre> genresById = new LinkedHashMap<>();
+        Map<Integer, MotionPictureAA> mpasById = new LinkedHashMap<>();
+
+        for (Genre genre : jdbc.query(FIND_ALL_GENRES_QUERY, genreRowMapper)) {
+            genresById.put(genre.getId(), genre);
+        }
+
+        for (MotionPictureAA mpa : jdbc.query(FIND_ALL_MPAS_QUERY, mpasRowMapper)) {
+            mpasById.put(mpa.getId(), mpa);
+        }
+
+        if (genresById.isEmpty() || mpasById.isEmpty()) {
+            throw new IllegalStateException("genre or motion_picture_aa table is empty");
+        }
+
+        snapshot = new Snapshot(List.copyOf(genresById.values()), Map.copyOf(genresById),
+                List.copyOf(mpasById.values()), Map.copyOf(mpasById));
+    }
+
+    private record Snapshot(List<Genre> genres,
+                            Map<Integer, Genre> genresById,
+                            List<MotionPictureAA> mpas,
+                            Map<Integer, MotionPictureAA> mpasById) {
+    }
+}
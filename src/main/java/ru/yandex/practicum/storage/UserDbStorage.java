@@ -3,17 +3,25 @@ package ru.yandex.practicum.storage;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 import ru.yandex.practicum.exception.NotFoundException;
 import ru.yandex.practicum.exception.SQLProblemException;
+import ru.yandex.practicum.model.Friendship;
+import ru.yandex.practicum.model.LongIdSet;
 import ru.yandex.practicum.model.User;
 import ru.yandex.practicum.storage.mappers.UserRowMapper;
 
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDateTime;
 import java.util.*;
@@ -23,36 +31,81 @@ import java.util.*;
 @Repository("userDbStorage")
 public class UserDbStorage implements UserStorage {
     private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate namedJdbc;
     private final UserRowMapper userRowMapper;
     // tables
     private static final String TABLE_USERS = "users";
     private static final String TABLE_FRIENDSHIP_CONFIRMED = "friendshipConfirmed";
+    private static final String TABLE_FILMS = "films";
+    private static final String TABLE_LIKES = "users_likes";
+    // one row per user, the friends are only counted, over the primary key of friendshipConfirmed
+    private static final String USER_COLUMNS = "u.id, u.email, u.login, u.name, u.birthday, " +
+            "(SELECT COUNT(*) FROM " + TABLE_FRIENDSHIP_CONFIRMED + " c WHERE c.user_id = u.id) AS friend_count ";
     // queries
-    private static final String FIND_ALL_QUERY = "SELECT u.id, u.email, u.login, u.name, u.birthday, " +
-            "fc.confirmed_friend_id " +
+    private static final String FIND_ALL_QUERY = "SELECT " + USER_COLUMNS +
+            "FROM users u";
+    private static final String FIND_PAGE_QUERY = "SELECT " + USER_COLUMNS +
             "FROM users u " +
-            "LEFT JOIN friendshipConfirmed fc ON u.id = fc.user_id ";
-    private static final String FIND_BY_ID_QUERY = "SELECT u.id, u.email, u.login, u.name, u.birthday, " +
-            "fc.confirmed_friend_id " +
+            "WHERE u.id > ? " +
+            "ORDER BY u.id " +
+            "LIMIT ?";
+    private static final String FIND_BY_ID_QUERY = "SELECT " + USER_COLUMNS +
             "FROM users u " +
-            "LEFT JOIN friendshipConfirmed fc ON u.id = fc.user_id " +
             "WHERE u.id = ?";
+    private static final String FIND_BY_IDS_QUERY = "SELECT " + USER_COLUMNS +
+            "FROM users u " +
+            "WHERE u.id IN (:ids)";
+    private static final int FIND_BY_IDS_CHUNK_SIZE = 1000;
+    private static final String EXISTS_BY_ID_QUERY = "SELECT EXISTS (SELECT 1 FROM users WHERE id = ?)";
+    private static final String FIND_ALL_IDS_QUERY = "SELECT id FROM users";
     private static final String INSERT_QUERY = "INSERT INTO users(email, login, name, birthday) " +
             "VALUES (?, ?, ?, ?)";
     private static final String UPDATE_QUERY = "UPDATE " + TABLE_USERS +
             " set email = ?, login = ?, name = ?, birthday = ? where id = ?";
     private static final String DELETE_QUERY = "delete from " + TABLE_USERS + " where id = ?";
-    private static final String GET_FRIENDS_QUERY = "SELECT * FROM " + TABLE_USERS + " AS u " +
-            "INNER JOIN " + TABLE_FRIENDSHIP_CONFIRMED + " AS fc ON u.id = fc.confirmed_friend_id " +
-            "WHERE fc.user_id = ?";
-    private static final String GET_MUTUAL_FRIENDS_QUERY = "SELECT u.id, u.email, u.login, u.name, u.birthday, " +
-            "fc.confirmed_friend_id " +
+    private static final String FIND_LIKED_FILM_IDS_QUERY = "SELECT film_id FROM " + TABLE_LIKES +
+            " WHERE user_id = ?";
+    private static final String RECOUNT_LIKES_QUERY = "UPDATE " + TABLE_FILMS +
+            " set like_count = (select count(*) from " + TABLE_LIKES + " where film_id = ?) where id = ?";
+    private static final String FIND_LIKE_COUNTS_OF_FILMS_QUERY = "SELECT id, like_count FROM " + TABLE_FILMS +
+            " WHERE id IN (:ids)";
+    // keyset page over the primary key (user_id, confirmed_friend_id)
+    private static final String GET_FRIENDS_PAGE_QUERY = "SELECT " + USER_COLUMNS +
+            "FROM " + TABLE_FRIENDSHIP_CONFIRMED + " fc " +
+            "JOIN users u ON u.id = fc.confirmed_friend_id " +
+            "WHERE fc.user_id = ? " +
+            "AND fc.confirmed_friend_id > ? " +
+            "ORDER BY fc.confirmed_friend_id " +
+            "LIMIT ?";
+    // semi-join both ways: friends of the first user that are friends of the second one, each user once;
+    // the probes go over the primary key and friendship_confirmed_friend_idx
+    private static final String GET_MUTUAL_FRIENDS_QUERY = "SELECT " + USER_COLUMNS +
             "FROM users u " +
-            "LEFT JOIN friendshipConfirmed fc ON u.id = fc.user_id " +
-            "JOIN friendshipConfirmed f1 ON u.id = f1.confirmed_friend_id " +
-            "JOIN friendshipConfirmed f2 ON u.id = f2.confirmed_friend_id " +
+            "WHERE u.id IN (SELECT f1.confirmed_friend_id FROM " + TABLE_FRIENDSHIP_CONFIRMED + " f1 " +
+            "WHERE f1.user_id = ? " +
+            "AND EXISTS (SELECT 1 FROM " + TABLE_FRIENDSHIP_CONFIRMED + " f2 " +
+            "WHERE f2.confirmed_friend_id = f1.confirmed_friend_id AND f2.user_id = ?)) " +
+            "ORDER BY u.id";
+    private static final String GET_MUTUAL_FRIEND_COUNTS_QUERY = "SELECT o.user_id, COUNT(*) AS mutual_count " +
+            "FROM " + TABLE_FRIENDSHIP_CONFIRMED + " o " +
+            "WHERE o.user_id IN (:otherIds) " +
+            "AND o.confirmed_friend_id IN (SELECT confirmed_friend_id FROM " + TABLE_FRIENDSHIP_CONFIRMED +
+            " WHERE user_id = :id) " +
+            "GROUP BY o.user_id";
+    // friends of friends in one statement: f1 - the user's friends, f2 - their friends, f3 - not a friend yet
+    private static final String GET_FRIEND_SUGGESTIONS_QUERY = "SELECT f2.confirmed_friend_id AS id, " +
+            "COUNT(*) AS connections " +
+            "FROM " + TABLE_FRIENDSHIP_CONFIRMED + " f1 " +
+            "JOIN " + TABLE_FRIENDSHIP_CONFIRMED + " f2 ON f2.user_id = f1.confirmed_friend_id " +
             "WHERE f1.user_id = ? " +
-            "AND f2.user_id = ?";
+            "AND f2.confirmed_friend_id <> f1.user_id " +
+            "AND NOT EXISTS (SELECT 1 FROM " + TABLE_FRIENDSHIP_CONFIRMED + " f3 " +
+            "WHERE f3.user_id = f1.user_id AND f3.confirmed_friend_id = f2.confirmed_friend_id) " +
+            "GROUP BY f2.confirmed_friend_id " +
+            "ORDER BY connections DESC, id " +
+            "LIMIT ?";
+    private static final String GET_ALL_FRIENDS_IDES = "SELECT user_id, confirmed_friend_id FROM " +
+            TABLE_FRIENDSHIP_CONFIRMED;
     private static final String GET_FRIENDS_IDES = "SELECT confirmed_friend_id FROM " + TABLE_FRIENDSHIP_CONFIRMED +
             " WHERE user_id = ?";
     public static final String INSERT_FRIEND_QUERY = "INSERT INTO friendshipConfirmed(user_id, confirmed_friend_id) " +
@@ -61,8 +114,10 @@ public class UserDbStorage implements UserStorage {
             " where user_id = ? AND confirmed_friend_id = ?";
 
     @Autowired
-    public UserDbStorage(JdbcTemplate jdbc, UserRowMapper userRowMapper) {
+    public UserDbStorage(JdbcTemplate jdbc,
+                         UserRowMapper userRowMapper) {
         this.jdbc = jdbc;
+        this.namedJdbc = new NamedParameterJdbcTemplate(jdbc);
         this.userRowMapper = userRowMapper;
     }
 
@@ -71,8 +126,6 @@ public class UserDbStorage implements UserStorage {
     public Collection<User> findAll() {
         log.info("------------- * Start / Finish * UserDbStorage * findAll() -------------");
 
-        UserRowMapper userRowMapper = new UserRowMapper();
-
         List<User> users = jdbc.query(FIND_ALL_QUERY, userRowMapper);
 
         if (CollectionUtils.isEmpty(users)) {
@@ -86,6 +139,14 @@ public class UserDbStorage implements UserStorage {
         return users;
     }
 
+    // keyset page: users with id > after, ordered by id, one round trip per page
+    @Override
+    public List<User> findPage(long after, int limit) {
+        log.info("------------- * Start / Finish * UserDbStorage * findPage() -------------");
+
+        return jdbc.query(FIND_PAGE_QUERY, userRowMapper, after, limit);
+    }
+
     @Override
     public Optional<User> findById(Long userId) {
         log.info("------------- * Start / Finish * UserDbStorage * findById() -------------");
@@ -103,6 +164,47 @@ public class UserDbStorage implements UserStorage {
         }
     }
 
+    @Override
+    public List<User> findByIds(List<Long> ids) {
+        log.info("------------- * Start / Finish * UserDbStorage * findByIds() -------------");
+        Map<Long, User> usersById = new HashMap<>();
+
+        for (int from = 0; from < ids.size(); from += FIND_BY_IDS_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + FIND_BY_IDS_CHUNK_SIZE, ids.size()));
+
+            for (User user : namedJdbc.query(FIND_BY_IDS_QUERY, Map.of("ids", chunk), userRowMapper)) {
+                usersById.put(user.getId(), user);
+            }
+        }
+
+        List<User> users = new ArrayList<>(usersById.size());
+
+        for (Long id : ids) {
+            User user = usersById.get(id);
+
+            if (user != null) {
+                users.add(user);
+            }
+        }
+
+        return users;
+    }
+
+    @Override
+    public boolean existsById(Long userId) {
+        log.info("------------- * Start / Finish * UserDbStorage * existsById() -------------");
+        return Boolean.TRUE.equals(jdbc.queryForObject(EXISTS_BY_ID_QUERY, Boolean.class, userId));
+    }
+
+    @Override
+    public LongIdSet findAllIds() {
+        log.info("------------- * Start / Finish * UserDbStorage * findAllIds() -------------");
+        LongIdSet ids = new LongIdSet();
+
+        jdbc.query(FIND_ALL_IDS_QUERY, (RowCallbackHandler) rs -> ids.addId(rs.getLong("id")));
+        return ids;
+    }
+
     @Override
     public User create(User user) {
         log.info("\n------------- * Start * UserDbStorage * create() -------------");
@@ -111,11 +213,7 @@ public class UserDbStorage implements UserStorage {
         try {
             jdbc.update(connection -> {
                 PreparedStatement stmt = connection.prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS);
-                stmt.setString(1, user.getEmail());
-                stmt.setString(2, user.getLogin());
-                stmt.setString(3, user.getName());
-                LocalDateTime birthdayTime = user.getBirthday().atStartOfDay();
-                stmt.setObject(4, birthdayTime);
+                setUserValues(stmt, user);
                 return stmt;
             }, keyHolder);
         } catch (DataAccessException e) {
@@ -136,6 +234,47 @@ public class UserDbStorage implements UserStorage {
         return user;
     }
 
+    // one batch for all the users
+    @Override
+    @Transactional
+    public List<User> createAll(List<User> users) {
+        log.info("------------- * Start / Finish * UserDbStorage * createAll() -------------");
+        if (users.isEmpty()) {
+            return users;
+        }
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+
+        try {
+            jdbc.batchUpdate(connection -> connection.prepareStatement(INSERT_QUERY,
+                    Statement.RETURN_GENERATED_KEYS), new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    setUserValues(ps, users.get(i));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return users.size();
+                }
+            }, keyHolder);
+        } catch (DataAccessException e) {
+            throw new SQLProblemException("insert users failed");
+        }
+
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+
+        if (keys.size() != users.size()) {
+            throw new NotFoundException(" UserDbStorage, createAll(), id = null");
+        }
+
+        for (int i = 0; i < users.size(); i++) {
+            users.get(i).setId(((Number) keys.get(i).values().iterator().next()).longValue());
+        }
+
+        return users;
+    }
+
     @Override
     public Optional<User> update(User user) {
         log.info("------------- * Start * UserDbStorage * update() -------------");
@@ -155,21 +294,43 @@ public class UserDbStorage implements UserStorage {
         return Optional.of(user);
     }
 
+    // the user's likes go with the ON DELETE CASCADE, so like_count of the films they liked is recounted
+    // in the same transaction
     @Override
-    public void delete(User user) {
+    @Transactional
+    public Map<Long, Long> delete(User user) {
         log.info("------------- * Start / Finish * UserDbStorage * delete() -------------");
+        List<Long> likedFilmIds = jdbc.queryForList(FIND_LIKED_FILM_IDS_QUERY, Long.class, user.getId());
         int rowsAffected = jdbc.update(DELETE_QUERY, user.getId());
 
         if (rowsAffected == 0) {
             throw new RuntimeException("Данные не удалены");
         }
+
+        Map<Long, Long> likesCounts = new HashMap<>();
+
+        if (likedFilmIds.isEmpty()) {
+            return likesCounts;
+        }
+
+        List<Object[]> recountArgs = new ArrayList<>(likedFilmIds.size());
+
+        for (Long filmId : likedFilmIds) {
+            recountArgs.add(new Object[]{filmId, filmId});
+        }
+
+        jdbc.batchUpdate(RECOUNT_LIKES_QUERY, recountArgs);
+        namedJdbc.query(FIND_LIKE_COUNTS_OF_FILMS_QUERY, Map.of("ids", likedFilmIds), (RowCallbackHandler) rs ->
+                likesCounts.put(rs.getLong("id"), rs.getLong("like_count")));
+        return likesCounts;
     }
 
     // CRUDs of friendship
+    // keyset page: friends with id > after, ordered by id
     @Override
-    public List<User> getFriends(Long id) {
+    public List<User> getFriends(Long id, long after, int limit) {
         log.info("------------- * Start / Finish * UserDbStorage * getFriends() -------------");
-        return jdbc.query(GET_FRIENDS_QUERY, userRowMapper, id);
+        return jdbc.query(GET_FRIENDS_PAGE_QUERY, userRowMapper, id, after, limit);
     }
 
     @Override
@@ -178,37 +339,103 @@ public class UserDbStorage implements UserStorage {
         return jdbc.query(GET_MUTUAL_FRIENDS_QUERY, userRowMapper, id, otherId);
     }
 
+    @Override
+    public Map<Long, Long> getMutualFriendCounts(Long id, List<Long> otherIds) {
+        log.info("------------- * Start / Finish * UserDbStorage * getMutualFriendCounts() -------------");
+        Map<Long, Long> counts = new LinkedHashMap<>();
+
+        for (Long otherId : otherIds) {
+            counts.put(otherId, 0L);
+        }
+
+        if (counts.isEmpty()) {
+            return counts;
+        }
+
+        namedJdbc.query(GET_MUTUAL_FRIEND_COUNTS_QUERY, Map.of("id", id, "otherIds", counts.keySet()),
+                (RowCallbackHandler) rs -> counts.put(rs.getLong("user_id"), rs.getLong("mutual_count")));
+        return counts;
+    }
+
     @Override
     public Set<Long> getFriendsIdes(Long id) {
         log.info("------------- * Start / Finish * UserDbStorage * getFriendsIdes() -------------");
-        HashSet<Long> friendsIdes = new HashSet<>();
+        LongIdSet friendsIdes = new LongIdSet();
 
-        for (Long friendId : jdbc.queryForList(GET_FRIENDS_IDES, Long.class, id)) {
-            if (friendId != null) {
-                friendsIdes.add(friendId);
-            }
-        }
+        jdbc.query(GET_FRIENDS_IDES, (RowCallbackHandler) rs -> friendsIdes.addId(rs.getLong("confirmed_friend_id")),
+                id);
+        return friendsIdes;
+    }
+
+    @Override
+    public List<Long> getFriendSuggestions(Long id, int limit) {
+        log.info("------------- * Start / Finish * UserDbStorage * getFriendSuggestions() -------------");
+        return jdbc.query(GET_FRIEND_SUGGESTIONS_QUERY, (rs, rowNum) -> rs.getLong("id"), id, limit);
+    }
+
+    @Override
+    public Map<Long, LongIdSet> getAllFriendsIdes() {
+        log.info("------------- * Start / Finish * UserDbStorage * getAllFriendsIdes() -------------");
+        Map<Long, LongIdSet> friendsIdes = new HashMap<>();
 
+        jdbc.query(GET_ALL_FRIENDS_IDES, (RowCallbackHandler) rs ->
+                friendsIdes.computeIfAbsent(rs.getLong("user_id"), userId -> new LongIdSet())
+                        .addId(rs.getLong("confirmed_friend_id")));
         return friendsIdes;
     }
 
+    // an unknown user or friend is rejected by the foreign keys, no probe before the insert
     @Override
     public void addFriend(Long id, Long friendId) {
         log.info("------------- * Start / Finish * UserDbStorage * addFriend() -------------");
-        if (findById(friendId).isEmpty()) {
-            throw new NotFoundException("friend is not found");
-        } else {
+        try {
             jdbc.update(INSERT_FRIEND_QUERY, id, friendId);
+        } catch (DataIntegrityViolationException e) {
+            if (!existsById(friendId)) {
+                throw new NotFoundException("friend is not found");
+            }
+
+            throw e;
+        }
+    }
+
+    // unknown users are rejected by the foreign keys of friendshipConfirmed
+    @Override
+    @Transactional
+    public void addFriends(List<Friendship> friendships) {
+        log.info("------------- * Start / Finish * UserDbStorage * addFriends() -------------");
+        if (friendships.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> friendArgs = new ArrayList<>(friendships.size());
+
+        for (Friendship friendship : friendships) {
+            friendArgs.add(new Object[]{friendship.getUserId(), friendship.getFriendId()});
+        }
+
+        try {
+            jdbc.batchUpdate(INSERT_FRIEND_QUERY, friendArgs);
+        } catch (DataAccessException e) {
+            throw new SQLProblemException("add friends failed");
         }
     }
 
     @Override
     public void deleteFriend(Long id, Long friendId) {
         log.info("------------- * Start / Finish * UserDbStorage * deleteFriend() -------------");
-        if (findById(friendId).isEmpty()) {
+        if (!existsById(friendId)) {
             throw new NotFoundException("friend is not found");
         } else {
             jdbc.update(DELETE_FRIEND_QUERY, id, friendId);
         }
     }
+
+    private static void setUserValues(PreparedStatement ps, User user) throws SQLException {
+        ps.setString(1, user.getEmail());
+        ps.setString(2, user.getLogin());
+        ps.setString(3, user.getName());
+        LocalDateTime birthdayTime = user.getBirthday().atStartOfDay();
+        ps.setObject(4, birthdayTime);
+    }
 }
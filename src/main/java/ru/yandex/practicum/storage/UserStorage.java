@@ -1,9 +1,12 @@
 package ru.yandex.practicum.storage;
 
+import ru.yandex.practicum.model.Friendship;
+import ru.yandex.practicum.model.LongIdSet;
 import ru.yandex.practicum.model.User;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -11,22 +14,54 @@ public interface UserStorage {
     // users CRUDs
     public Collection<User> findAll();
 
+    public List<User> findPage(long after, int limit);
+
     public Optional<User> findById(Long userId);
 
+    // in the order of ids, unknown ids are skipped
+    public List<User> findByIds(List<Long> ids);
+
+    // a probe of the primary key, nothing is loaded
+    public boolean existsById(Long userId);
+
+    // ids of all the users, for the id filter
+    public LongIdSet findAllIds();
+
     public User create(User user);
 
+    // bulk create, the given users get their ids
+    public default List<User> createAll(List<User> users) {
+        users.forEach(this::create);
+        return users;
+    }
+
     public Optional<User> update(User user);
 
-    public void delete(User user);
+    // film id -> like count recounted without the user's likes, for the films the user liked
+    public Map<Long, Long> delete(User user);
 
     // CRUDs of friendship
-    public List<User> getFriends(Long id);
+    // keyset page of the user's friends
+    public List<User> getFriends(Long id, long after, int limit);
 
     public List<User> getMutualFriends(Long id, Long otherId);
 
+    // other user id -> number of friends the user and the other user have in common, in the order of otherIds
+    public Map<Long, Long> getMutualFriendCounts(Long id, List<Long> otherIds);
+
     public Set<Long> getFriendsIdes(Long id);
 
+    // ids of the non-friends most connected to the user through the user's friends, the best first
+    public List<Long> getFriendSuggestions(Long id, int limit);
+
+    // user id -> ids of the confirmed friends, for every user with a friend
+    public Map<Long, LongIdSet> getAllFriendsIdes();
+
     public void addFriend(Long id, Long friendId);
 
+    public default void addFriends(List<Friendship> friendships) {
+        friendships.forEach(friendship -> addFriend(friendship.getUserId(), friendship.getFriendId()));
+    }
+
     public void deleteFriend(Long id, Long friendId);
 }
@@ -0,0 +1,48 @@
+package ru.yandex.practicum.storage.mappers;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.model.Film;
+import ru.yandex.practicum.model.Genre;
+import ru.yandex.practicum.storage.ReferenceDataRegistry;
+
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// a film row with its like_count, mpa_id and the genre_ids array;
+// mpa and genres are the shared instances of the ReferenceDataRegistry
+@Component
+public class FilmDetailsRowMapper implements RowMapper<Film> {
+    private final FilmRowMapper filmRowMapper;
+    private final ReferenceDataRegistry referenceData;
+
+    public FilmDetailsRowMapper(FilmRowMapper filmRowMapper, ReferenceDataRegistry referenceData) {
+        this.filmRowMapper = filmRowMapper;
+        this.referenceData = referenceData;
+    }
+
+    @Override
+    public Film mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Film film = filmRowMapper.mapRow(rs, rowNum);
+
+        Integer mpaId = rs.getObject("mpa_id", Integer.class);
+        film.setMpa(mpaId != null ? referenceData.getMPA(mpaId) : null);
+
+        Set<Genre> genres = new LinkedHashSet<>();
+        Array genreIds = rs.getArray("genre_ids");
+
+        if (genreIds != null) {
+            for (Object genreId : (Object[]) genreIds.getArray()) {
+                genres.add(referenceData.getGenre(((Number) genreId).intValue()));
+            }
+
+            genreIds.free();
+        }
+
+        film.setGenres(genres);
+        return film;
+    }
+}
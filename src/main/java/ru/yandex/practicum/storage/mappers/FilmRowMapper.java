@@ -21,6 +21,7 @@ public class FilmRowMapper implements RowMapper<Film> {
         film.setDescription(rs.getString("description"));
         film.setReleaseDate(rs.getDate("releaseDate").toLocalDate());
         film.setDuration(rs.getInt("duration"));
+        film.setLikeCount(rs.getLong("like_count"));
 
         return film;
     }
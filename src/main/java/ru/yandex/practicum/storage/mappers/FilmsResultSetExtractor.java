@@ -0,0 +1,58 @@
+package ru.yandex.practicum.storage.mappers;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.model.Film;
+import ru.yandex.practicum.storage.ReferenceDataRegistry;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+// folds "film x mpa id x genre id" rows into one Film per id, keeping the order of the rows - of the films and
+// of each film's genres; mpa and genres are the shared instances of the ReferenceDataRegistry
+@Component
+public class FilmsResultSetExtractor implements ResultSetExtractor<List<Film>> {
+    private final FilmRowMapper filmRowMapper;
+    private final ReferenceDataRegistry referenceData;
+
+    public FilmsResultSetExtractor(FilmRowMapper filmRowMapper, ReferenceDataRegistry referenceData) {
+        this.filmRowMapper = filmRowMapper;
+        this.referenceData = referenceData;
+    }
+
+    @Override
+    public List<Film> extractData(ResultSet rs) throws SQLException {
+        Map<Long, Film> films = new LinkedHashMap<>();
+
+        while (rs.next()) {
+            long filmId = rs.getLong("id");
+            Film film = films.get(filmId);
+
+            if (film == null) {
+                film = filmRowMapper.mapRow(rs, rs.getRow());
+                film.setMpa(null);
+                film.setGenres(new LinkedHashSet<>());
+                films.put(filmId, film);
+            }
+
+            Integer mpaId = rs.getObject("mpa_id", Integer.class);
+
+            if (mpaId != null && film.getMpa() == null) {
+                film.setMpa(referenceData.getMPA(mpaId));
+            }
+
+            Integer genreId = rs.getObject("genre_id", Integer.class);
+
+            if (genreId != null) {
+                film.getGenres().add(referenceData.getGenre(genreId));
+            }
+        }
+
+        return new ArrayList<>(films.values());
+    }
+}
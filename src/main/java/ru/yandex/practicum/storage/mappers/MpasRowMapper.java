@@ -11,10 +11,6 @@ import java.sql.SQLException;
 public class MpasRowMapper implements RowMapper<MotionPictureAA> {
     @Override
     public MotionPictureAA mapRow(ResultSet rs, int rowNum) throws SQLException {
-        MotionPictureAA motionPictureAA = new MotionPictureAA();
-
-        motionPictureAA.setId(rs.getInt("id"));
-        motionPictureAA.setName(rs.getString("name"));
-        return motionPictureAA;
+        return new MotionPictureAA(rs.getInt("id"), rs.getString("name"));
     }
 }
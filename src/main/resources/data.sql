@@ -6,6 +6,14 @@
 --DELETE FROM genre;
 DELETE FROM commands;
 
+-- one-off backfill of films.like_count for films liked before the counter was maintained;
+-- schema_migrations remembers it, so later startups skip it
+UPDATE films f SET like_count = (SELECT COUNT(*) FROM users_likes ul WHERE ul.film_id = f.id)
+WHERE NOT EXISTS (SELECT 1 FROM schema_migrations WHERE name = 'films.like_count backfill')
+AND EXISTS (SELECT 1 FROM users_likes ul WHERE ul.film_id = f.id);
+
+MERGE INTO schema_migrations (name) KEY (name) VALUES ('films.like_count backfill');
+
 INSERT INTO motion_picture_aa (id, name) VALUES
 (1, 'G'),
 (2, 'PG'),
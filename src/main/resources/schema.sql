@@ -18,20 +18,46 @@ CREATE TABLE IF NOT EXISTS friendshipConfirmed (
     PRIMARY KEY (user_id, confirmed_friend_id)
 );
 
+-- who has the user as a friend: the mutual-friends semi-join and the cascades of a deleted user
+CREATE INDEX IF NOT EXISTS friendship_confirmed_friend_idx ON friendshipConfirmed (confirmed_friend_id, user_id);
+
 CREATE TABLE IF NOT EXISTS films (
     id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
     name VARCHAR(1024) NOT NULL,
     description VARCHAR(1024),
     releaseDate TIMESTAMP NOT NULL,
-    duration INT NOT NULL
+    duration INT NOT NULL,
+    like_count BIGINT NOT NULL DEFAULT 0
+);
+
+-- databases created before films.like_count existed
+ALTER TABLE films ADD COLUMN IF NOT EXISTS like_count BIGINT NOT NULL DEFAULT 0;
+
+CREATE INDEX IF NOT EXISTS films_like_count_idx ON films (like_count DESC, id);
+
+-- one-off data migrations already applied to this database, see data.sql
+CREATE TABLE IF NOT EXISTS schema_migrations (
+    name VARCHAR(255) PRIMARY KEY
 );
 
 CREATE TABLE IF NOT EXISTS users_likes (
     user_id BIGINT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
     film_id BIGINT NOT NULL REFERENCES films(id) ON DELETE CASCADE,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     PRIMARY KEY (user_id, film_id)
 );
 
+-- databases created before users_likes.created_at existed: their likes get a time long past, so they don't
+-- all show up as trending at once; the likes made from then on get their own time
+ALTER TABLE users_likes ADD COLUMN IF NOT EXISTS created_at TIMESTAMP NOT NULL DEFAULT TIMESTAMP '1970-01-01 00:00:00';
+ALTER TABLE users_likes ALTER COLUMN created_at SET DEFAULT CURRENT_TIMESTAMP;
+
+-- likes of a film in the order of user ids, for GET /films/{id}/likes
+CREATE INDEX IF NOT EXISTS users_likes_film_idx ON users_likes (film_id, user_id);
+
+-- the recent likes the trending counters start from
+CREATE INDEX IF NOT EXISTS users_likes_created_at_idx ON users_likes (created_at);
+
 CREATE TABLE IF NOT EXISTS genre (
     id INT UNIQUE NOT NULL,
     name VARCHAR(255) NOT NULL
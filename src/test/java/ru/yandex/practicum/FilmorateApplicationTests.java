@@ -10,20 +10,48 @@ import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.test.context.jdbc.Sql;
 import ru.yandex.practicum.exception.NotFoundException;
+import ru.yandex.practicum.index.FilmFacetIndex;
+import ru.yandex.practicum.index.FilmSearchIndex;
+import ru.yandex.practicum.index.FriendGraph;
+import ru.yandex.practicum.index.IdBloomFilter;
+import ru.yandex.practicum.index.LikeMatrix;
+import ru.yandex.practicum.index.PopularityCharts;
+import ru.yandex.practicum.index.PopularityLeaderboard;
+import ru.yandex.practicum.index.PopularitySketch;
+import ru.yandex.practicum.index.TitleAutocomplete;
+import ru.yandex.practicum.index.TopK;
+import ru.yandex.practicum.index.TrendingCounters;
 import ru.yandex.practicum.model.Film;
+import ru.yandex.practicum.model.Friendship;
 import ru.yandex.practicum.model.Genre;
+import ru.yandex.practicum.model.Like;
+import ru.yandex.practicum.model.LikesChange;
+import ru.yandex.practicum.model.LongIdSet;
 import ru.yandex.practicum.model.MotionPictureAA;
 import ru.yandex.practicum.model.User;
+import ru.yandex.practicum.service.LikeWriteBuffer;
 import ru.yandex.practicum.storage.FilmDbStorage;
+import ru.yandex.practicum.storage.InMemoryFilmStorage;
+import ru.yandex.practicum.storage.ReferenceDataRegistry;
 import ru.yandex.practicum.storage.UserDbStorage;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -41,6 +69,8 @@ class FilmorateApplicationTests {
     static Film transferredFilm1;
     static Film transferredFilm2;
     static Film transferredFilm3;
+    private final InMemoryFilmStorage inMemoryFilmStorage;
+    private final ReferenceDataRegistry referenceData;
 
     @BeforeEach
     void setUp() {
@@ -68,9 +98,9 @@ class FilmorateApplicationTests {
         transferredFilm1.setReleaseDate(LocalDate.ofEpochDay(1989-10-11));
         transferredFilm2.setReleaseDate(LocalDate.ofEpochDay(1991-10-11));
         transferredFilm3.setReleaseDate(LocalDate.ofEpochDay(1999-10-11));
-        transferredFilm1.getMpa().setId(1);
-        transferredFilm2.getMpa().setId(2);
-        transferredFilm3.getMpa().setId(3);
+        transferredFilm1.setMpa(new MotionPictureAA(1, null));
+        transferredFilm2.setMpa(new MotionPictureAA(2, null));
+        transferredFilm3.setMpa(new MotionPictureAA(3, null));
         filmDbStorage.include(transferredFilm1);
         filmDbStorage.include(transferredFilm2);
         filmDbStorage.include(transferredFilm3);
@@ -108,6 +138,22 @@ class FilmorateApplicationTests {
         assertThat(userStorage.findById(transferredUser2.getId()).isEmpty()).isTrue();
     }
 
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testDeleteUserRecountsLikes() {
+        long filmId1 = transferredFilm1.getId();
+        long filmId2 = transferredFilm2.getId();
+
+        filmDbStorage.addLike(filmId1, transferredUser1.getId());
+        filmDbStorage.addLike(filmId1, transferredUser2.getId());
+        filmDbStorage.addLike(filmId2, transferredUser1.getId());
+
+        assertThat(userStorage.delete(transferredUser1)).containsOnly(entry(filmId1, 1L), entry(filmId2, 0L));
+        assertThat(userStorage.delete(transferredUser3)).isEmpty();
+
+        assertThat(filmDbStorage.getMostPopular(2)).extracting(Film::getId).containsExactly(filmId1);
+    }
+
     @Test
     @Sql(scripts = "classpath:test-data.sql")
     public void testFindUserById() {
@@ -142,6 +188,22 @@ class FilmorateApplicationTests {
         assertThrows(NotFoundException.class, userStorage::findAll);
     }
 
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testFindPageOfUsers() {
+        List<User> firstPage = userStorage.findPage(0, 2);
+
+        assertThat(firstPage).hasSize(2);
+        assertThat(firstPage.get(0).getId()).isEqualTo(transferredUser1.getId());
+        assertThat(firstPage.get(1).getId()).isEqualTo(transferredUser2.getId());
+
+        List<User> secondPage = userStorage.findPage(firstPage.get(1).getId(), 2);
+
+        assertThat(secondPage).hasSize(1);
+        assertThat(secondPage.get(0).getId()).isEqualTo(transferredUser3.getId());
+        assertThat(userStorage.findPage(transferredUser3.getId(), 2)).isEmpty();
+    }
+
     @Test
     @Sql(scripts = "classpath:test-data.sql")
     public void testUpdateUser() {
@@ -170,6 +232,20 @@ class FilmorateApplicationTests {
         }
     }
 
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testExistsById() {
+        assertThat(userStorage.existsById(transferredUser1.getId())).isTrue();
+        assertThat(filmDbStorage.existsById(transferredFilm1.getId())).isTrue();
+        assertThat(userStorage.existsById(-1L)).isFalse();
+        assertThat(filmDbStorage.existsById(-1L)).isFalse();
+
+        userStorage.delete(transferredUser1);
+
+        assertThat(userStorage.existsById(transferredUser1.getId())).isFalse();
+        assertThrows(NotFoundException.class, () -> userStorage.addFriend(transferredUser2.getId(), -1L));
+    }
+
     // CRUDs of friendship
     @Test
     @Sql(scripts = "classpath:test-data.sql")
@@ -181,8 +257,8 @@ class FilmorateApplicationTests {
                 ? userStorage.findById(transferredUser1.getId()).get() : null;
 
         if (receivedUser1 != null) {
-            Set<Long> friends = receivedUser1.getFriendshipConfirmed();
-            assertThat(friends).hasSize(1);
+            assertThat(receivedUser1.getFriendCount()).isEqualTo(1L);
+            assertThat(receivedUser1.getFriendshipConfirmed()).isEmpty();
         } else {
             fail("receivedUser1 not found");
         }
@@ -193,7 +269,7 @@ class FilmorateApplicationTests {
     public void testGetFriendsOfUser() {
         userStorage.addFriend(transferredUser1.getId(), transferredUser2.getId());
 
-        List<User> users = userStorage.getFriends(transferredUser1.getId());
+        List<User> users = userStorage.getFriends(transferredUser1.getId(), 0, 10);
 
         assertThat(users).hasSize(1);
         assertThat(users.get(0).getId()).isEqualTo(transferredUser2.getId());
@@ -203,9 +279,29 @@ class FilmorateApplicationTests {
     @Sql(scripts = "classpath:test-data.sql")
     public void testDeleteUsersFriend() {
         userStorage.addFriend(transferredUser1.getId(), transferredUser2.getId());
-        assertThat(userStorage.getFriends(transferredUser1.getId())).hasSize(1);
+        assertThat(userStorage.getFriends(transferredUser1.getId(), 0, 10)).hasSize(1);
         userStorage.deleteFriend(transferredUser1.getId(), transferredUser2.getId());
-        assertThat(userStorage.getFriends(transferredUser1.getId())).isEmpty();
+        assertThat(userStorage.getFriends(transferredUser1.getId(), 0, 10)).isEmpty();
+    }
+
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testGetFriendsByPages() {
+        long userId = transferredUser1.getId();
+
+        userStorage.addFriend(userId, transferredUser3.getId());
+        userStorage.addFriend(userId, transferredUser2.getId());
+        userStorage.addFriend(transferredUser2.getId(), userId);
+
+        List<User> firstPage = userStorage.getFriends(userId, 0, 1);
+        List<User> secondPage = userStorage.getFriends(userId, firstPage.get(firstPage.size() - 1).getId(), 1);
+
+        assertThat(firstPage).extracting(User::getId).containsExactly(transferredUser2.getId());
+        assertThat(firstPage.get(0).getFriendCount()).isEqualTo(1L);
+        assertThat(secondPage).extracting(User::getId).containsExactly(transferredUser3.getId());
+        assertThat(secondPage.get(0).getFriendCount()).isZero();
+        assertThat(userStorage.getFriends(userId, secondPage.get(secondPage.size() - 1).getId(), 1)).isEmpty();
+        assertThat(userStorage.findPage(0, 1).get(0).getFriendCount()).isEqualTo(2L);
     }
 
     @Test
@@ -220,6 +316,91 @@ class FilmorateApplicationTests {
         assertThat(users.get(0).getId()).isEqualTo(transferredUser3.getId());
     }
 
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testMutualFriendCountsFromGraphAndDatabase() {
+        long userId1 = transferredUser1.getId();
+        long userId2 = transferredUser2.getId();
+        long userId3 = transferredUser3.getId();
+
+        userStorage.addFriend(userId1, userId3);
+        userStorage.addFriend(userId2, userId3);
+        userStorage.addFriend(userId2, userId1);
+        userStorage.addFriend(userId3, userId2);
+
+        FriendGraph friendGraph = new FriendGraph();
+        friendGraph.seed(userStorage.getAllFriendsIdes());
+
+        assertThat(friendGraph.mutualFriends(userId1, userId2)).containsExactly(userId3);
+        assertThat(friendGraph.mutualFriendCounts(userId1, List.of(userId2, userId3, -1L)))
+                .containsExactly(entry(userId2, 1L), entry(userId3, 0L), entry(-1L, 0L));
+        assertThat(userStorage.getMutualFriendCounts(userId1, List.of(userId2, userId3, -1L)))
+                .containsExactly(entry(userId2, 1L), entry(userId3, 0L), entry(-1L, 0L));
+
+        friendGraph.removeUser(userId3);
+
+        assertThat(friendGraph.mutualFriends(userId1, userId2)).isEmpty();
+        assertThat(friendGraph.friendCount(userId2)).isEqualTo(1);
+    }
+
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testFriendSuggestions() {
+        List<Long> userIds = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            User user = new User();
+            user.setEmail("friend" + i + "@mail.ru");
+            user.setLogin("friend" + i);
+            user.setName("friend" + i);
+            user.setBirthday(LocalDate.of(1990, 1, 1));
+            userIds.add(userStorage.create(user).getId());
+        }
+
+        long userId = transferredUser1.getId();
+        long friendId1 = transferredUser2.getId();
+        long friendId2 = transferredUser3.getId();
+
+        userStorage.addFriend(userId, friendId1);
+        userStorage.addFriend(userId, friendId2);
+        // two connections for userIds[1], one for userIds[0] and userIds[2]; the user and friendId2 are no candidates
+        userStorage.addFriend(friendId1, userIds.get(2));
+        userStorage.addFriend(friendId1, userIds.get(1));
+        userStorage.addFriend(friendId1, userId);
+        userStorage.addFriend(friendId1, friendId2);
+        userStorage.addFriend(friendId2, userIds.get(1));
+        userStorage.addFriend(friendId2, userIds.get(0));
+
+        FriendGraph friendGraph = new FriendGraph();
+        friendGraph.seed(userStorage.getAllFriendsIdes());
+
+        List<Long> expected = List.of(userIds.get(1), userIds.get(0), userIds.get(2));
+
+        assertThat(friendGraph.suggestions(userId, 10)).containsExactlyElementsOf(expected);
+        assertThat(friendGraph.suggestions(userId, 2)).containsExactlyElementsOf(expected.subList(0, 2));
+        assertThat(userStorage.getFriendSuggestions(userId, 10)).containsExactlyElementsOf(expected);
+        assertThat(userStorage.getFriendSuggestions(userId, 2)).containsExactlyElementsOf(expected.subList(0, 2));
+        assertThat(friendGraph.suggestions(userIds.get(3), 10)).isEmpty();
+    }
+
+    @Test
+    public void testTopK() {
+        TopK<TopK.Scored> best = TopK.byScore(3);
+
+        for (long id = 1; id <= 10; id++) {
+            // ties on 5.0 (ids 5 and 8) and on 4.0 (ids 4 and 10), the lower id first
+            best.offer(new TopK.Scored(id, id == 8 ? 5.0 : id % 6));
+        }
+
+        assertThat(TopK.ids(best)).containsExactly(5L, 8L, 4L);
+        assertThat(best.size()).isEqualTo(3);
+
+        TopK<TopK.Scored> none = TopK.byScore(0);
+        none.offer(new TopK.Scored(1, 1.0));
+
+        assertThat(TopK.ids(none)).isEmpty();
+    }
+
     @Test
     @Sql(scripts = "classpath:test-data.sql")
     public void testGetFriendsIdesOfUser() {
@@ -293,6 +474,29 @@ class FilmorateApplicationTests {
         assertThrows(NotFoundException.class, filmDbStorage::findAll);
     }
 
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testFindPageOfFilms() {
+        Film film = filmDbStorage.findById(transferredFilm1.getId()).orElseThrow();
+        film.setGenres(genresOf(6, 1, 3));
+        filmDbStorage.update(film);
+
+        List<Film> firstPage = filmDbStorage.findPage(0, 2);
+
+        assertThat(firstPage).hasSize(2);
+        assertThat(firstPage.get(0).getId()).isEqualTo(transferredFilm1.getId());
+        assertThat(firstPage.get(0).getMpa().getId()).isEqualTo(1);
+        // in id order, like the details of a film
+        assertThat(firstPage.get(0).getGenres()).extracting(Genre::getId).containsExactly(1, 3, 6);
+        assertThat(firstPage.get(1).getId()).isEqualTo(transferredFilm2.getId());
+
+        List<Film> secondPage = filmDbStorage.findPage(firstPage.get(1).getId(), 2);
+
+        assertThat(secondPage).hasSize(1);
+        assertThat(secondPage.get(0).getId()).isEqualTo(transferredFilm3.getId());
+        assertThat(filmDbStorage.findPage(transferredFilm3.getId(), 2)).isEmpty();
+    }
+
     @Test
     @Sql(scripts = "classpath:test-data.sql")
     public void testFindFilmById() {
@@ -305,6 +509,113 @@ class FilmorateApplicationTests {
                 );
     }
 
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testFindFilmDetailsById() {
+        Film film = filmDbStorage.findById(transferredFilm2.getId()).orElseThrow();
+        film.setGenres(genresOf(3, 1));
+        filmDbStorage.update(film);
+        filmDbStorage.addLike(film.getId(), transferredUser1.getId());
+        filmDbStorage.addLike(film.getId(), transferredUser2.getId());
+
+        Film details = filmDbStorage.findDetailsById(film.getId()).orElseThrow();
+
+        assertThat(details.getName()).isEqualTo("filmname2");
+        assertThat(details.getMpa()).isSameAs(referenceData.getMPA(2));
+        assertThat(details.getGenres()).extracting(Genre::getId).containsExactly(1, 3);
+        assertThat(details.getLikeCount()).isEqualTo(2L);
+        assertThat(details.getLikes()).isEmpty();
+        assertThat(filmDbStorage.findDetailsById(transferredFilm3.getId()).orElseThrow().getGenres()).isEmpty();
+        assertThat(filmDbStorage.findDetailsById(-1L)).isEmpty();
+    }
+
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testHydrationAcrossChunks() {
+        for (int i = 0; i < 2_100; i++) {
+            Film film = new Film();
+            film.setName("chunked" + i);
+            film.setReleaseDate(LocalDate.of(2000, 1, 1));
+            film.setMpa(new MotionPictureAA(i % 5 + 1, null));
+            Genre genre = new Genre(i % 6 + 1, null);
+            film.setGenres(Set.of(genre));
+            filmDbStorage.include(film);
+            filmDbStorage.addLike(film.getId(), transferredUser1.getId());
+        }
+
+        // three chunks of films, each hydrated with its own MPA and genres
+        List<Film> receivedFilms = filmDbStorage.getMostPopular(3_000).stream()
+                .filter(film -> film.getName().startsWith("chunked"))
+                .toList();
+
+        assertThat(receivedFilms).hasSize(2_100);
+
+        for (Film receivedFilm : receivedFilms) {
+            int i = Integer.parseInt(receivedFilm.getName().substring("chunked".length()));
+
+            assertThat(receivedFilm.getMpa().getId()).isEqualTo(i % 5 + 1);
+            assertThat(receivedFilm.getGenres()).extracting(Genre::getId).containsExactly(i % 6 + 1);
+        }
+    }
+
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testIncludeFilmWithManyGenres() {
+        Film film = new Film();
+        film.setName("five genres");
+        film.setReleaseDate(LocalDate.of(2000, 1, 1));
+        film.setMpa(new MotionPictureAA(2, null));
+        Set<Genre> genres = new HashSet<>();
+
+        for (int genreId = 5; genreId >= 1; genreId--) {
+            Genre genre = new Genre(genreId, null);
+            genres.add(genre);
+        }
+
+        film.setGenres(genres);
+        filmDbStorage.include(film);
+
+        Film receivedFilm = filmDbStorage.findById(film.getId()).orElseThrow();
+
+        assertThat(receivedFilm.getMpa().getId()).isEqualTo(2);
+        assertThat(receivedFilm.getGenres()).extracting(Genre::getId).containsExactly(1, 2, 3, 4, 5);
+    }
+
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testBulkIncludeLikesAndFriends() {
+        List<Film> films = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            Film film = new Film();
+            film.setName("bulk" + i);
+            film.setReleaseDate(LocalDate.of(2000, 1, 1));
+            film.setMpa(new MotionPictureAA(i % 5 + 1, null));
+            film.setGenres(genresOf(i % 6 + 1, 6));
+            films.add(film);
+        }
+
+        User user = new User();
+        user.setEmail("bulk@mail.ru");
+        user.setLogin("bulk");
+        user.setName("bulk");
+        user.setBirthday(LocalDate.of(1990, 1, 1));
+
+        filmDbStorage.includeAll(films);
+        userStorage.createAll(List.of(user));
+        filmDbStorage.addLikes(List.of(new Like(films.get(9).getId(), user.getId()),
+                new Like(films.get(9).getId(), transferredUser1.getId())));
+        userStorage.addFriends(List.of(new Friendship(user.getId(), transferredUser1.getId())));
+
+        assertThat(films).extracting(Film::getId).doesNotContainNull().doesNotHaveDuplicates();
+        assertThat(filmDbStorage.findById(films.get(3).getId()).orElseThrow().getGenres())
+                .extracting(Genre::getId).containsExactly(4, 6);
+        assertThat(filmDbStorage.getMostPopular(1)).extracting(Film::getId).containsExactly(films.get(9).getId());
+        assertThat(userStorage.getFriendsIdes(user.getId())).containsExactly(transferredUser1.getId());
+        assertThrows(RuntimeException.class,
+                () -> filmDbStorage.addLikes(List.of(new Like(films.get(0).getId(), -1L))));
+    }
+
     @Test
     @Sql(scripts = "classpath:test-data.sql")
     public void testUpdateFilm() {
@@ -330,6 +641,336 @@ class FilmorateApplicationTests {
         }
     }
 
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testUpdateFilmGenresAndMpa() {
+        Film film = filmDbStorage.findById(transferredFilm1.getId()).orElseThrow();
+        film.setGenres(genresOf(1, 2, 3));
+        filmDbStorage.update(film);
+
+        film.setMpa(referenceData.getMPA(5));
+        film.setGenres(genresOf(2, 3, 6));
+        filmDbStorage.update(film);
+
+        Film receivedFilm = filmDbStorage.findById(film.getId()).orElseThrow();
+
+        assertThat(receivedFilm.getMpa().getId()).isEqualTo(5);
+        assertThat(receivedFilm.getGenres()).extracting(Genre::getId).containsExactly(2, 3, 6);
+
+        film.setGenres(Set.of());
+        filmDbStorage.update(film);
+
+        assertThat(filmDbStorage.findById(film.getId()).orElseThrow().getGenres()).isEmpty();
+    }
+
+    @Test
+    public void testFilmSearchIndex() {
+        FilmSearchIndex searchIndex = new FilmSearchIndex();
+        searchIndex.put(1, "Ёлки", "Новогодняя комедия");
+        searchIndex.put(2, "Комедия положений", "Фильм о ёлке и ёлках");
+        searchIndex.put(3, "Star Wars", "A space opera, episode IV");
+        searchIndex.put(4, "Сериал", "комедия; ёлки-палки!");
+
+        assertThat(FilmSearchIndex.tokenize("Ёлки-палки, 2024!")).containsExactly("елки", "палки", "2024");
+        // the name weighs more than the description
+        assertThat(searchIndex.search("комедия", 0, 10)).containsExactly(2L, 1L, 4L);
+        assertThat(searchIndex.search("комедия", 1, 1)).containsExactly(1L);
+        assertThat(searchIndex.search("ЕЛКИ комедия", 0, 10)).containsExactly(1L, 4L);
+        assertThat(searchIndex.search("SPACE opera", 0, 10)).containsExactly(3L);
+        assertThat(searchIndex.search("space комедия", 0, 10)).isEmpty();
+        assertThat(searchIndex.search("  ,. ", 0, 10)).isEmpty();
+
+        searchIndex.put(3, "Звёздные войны", "Космическая опера");
+        searchIndex.remove(2);
+
+        assertThat(searchIndex.search("space", 0, 10)).isEmpty();
+        assertThat(searchIndex.search("звездные", 0, 10)).containsExactly(3L);
+        assertThat(searchIndex.search("комедия", 0, 10)).containsExactly(1L, 4L);
+    }
+
+    @Test
+    public void testFilmSearchIndexConcurrentPutsAndRemoves() throws InterruptedException {
+        FilmSearchIndex searchIndex = new FilmSearchIndex();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicLong lostPuts = new AtomicLong();
+
+        // every film keeps emptying the shared token's set, so it is dropped and made again under the others' puts;
+        // a film is only taken out by its own thread, right after the check
+        for (long filmId = 1; filmId <= 4; filmId++) {
+            long putFilmId = filmId;
+            executor.submit(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    searchIndex.put(putFilmId, "shared", null);
+
+                    if (!searchIndex.search("shared", 0, 4).contains(putFilmId)) {
+                        lostPuts.incrementAndGet();
+                    }
+
+                    searchIndex.remove(putFilmId);
+                }
+            });
+        }
+
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+        assertThat(lostPuts.get()).isZero();
+    }
+
+    @Test
+    public void testTitleAutocomplete() {
+        Map<Long, Long> likes = new HashMap<>(Map.of(1L, 5L, 2L, 7L, 3L, 1L));
+        TitleAutocomplete titleIndex = new TitleAutocomplete(filmId -> likes.getOrDefault(filmId, 0L));
+        titleIndex.putAll(Map.of(1L, "Ёлки", 2L, "Ёлки 2", 3L, "Елка", 4L, "Star Wars"));
+
+        assertThat(titleIndex.complete("ел", 10)).containsExactly(2L, 1L, 3L);
+        assertThat(titleIndex.complete("ЁЛКИ", 10)).containsExactly(2L, 1L);
+        assertThat(titleIndex.complete("ел", 1)).containsExactly(2L);
+        assertThat(titleIndex.complete("star w", 10)).containsExactly(4L);
+        assertThat(titleIndex.complete("x", 10)).isEmpty();
+        assertThat(titleIndex.title(2L)).isEqualTo("Ёлки 2");
+
+        likes.put(3L, 10L);
+        titleIndex.likesChanged(3L);
+
+        assertThat(titleIndex.complete("е", 10)).containsExactly(3L, 2L, 1L);
+
+        titleIndex.put(2L, "Star Trek");
+        titleIndex.remove(3L);
+
+        assertThat(titleIndex.complete("е", 10)).containsExactly(1L);
+        assertThat(titleIndex.complete("star", 10)).containsExactly(2L, 4L);
+
+        // a like only marks the path stale, the put next to it recomputes the shared nodes with the new count
+        likes.put(4L, 9L);
+        titleIndex.likesChanged(4L);
+        titleIndex.put(7L, "Star Gate");
+
+        assertThat(titleIndex.complete("s", 10)).containsExactly(4L, 2L, 7L);
+        assertThat(titleIndex.complete("star w", 10)).containsExactly(4L);
+
+        String longTitle = "a".repeat(40);
+        titleIndex.put(5L, longTitle + "b");
+        titleIndex.put(6L, longTitle + "c");
+
+        assertThat(titleIndex.complete(longTitle + "c", 10)).containsExactly(6L);
+        assertThat(titleIndex.complete(longTitle, 10)).containsExactly(5L, 6L);
+    }
+
+    @Test
+    public void testFilmFacetIndex() {
+        FilmFacetIndex facetIndex = new FilmFacetIndex();
+        facetIndex.put(1, Set.of(1, 2), 1, 1990);
+        facetIndex.put(2, Set.of(2), 3, 1995);
+        facetIndex.put(3, Set.of(4), 3, 2001);
+        facetIndex.put(4, Set.of(), null, 1999);
+
+        FilmFacetIndex.Selection all = facetIndex.select(Set.of(), Set.of(), null, null);
+
+        assertThat(all.films()).containsExactly(1L, 2L, 3L, 4L);
+        assertThat(all.genreCounts()).containsExactly(entry(1, 1L), entry(2, 2L), entry(4, 1L));
+
+        FilmFacetIndex.Selection selection = facetIndex.select(Set.of(2, 4), Set.of(3), 1990, 2000);
+
+        assertThat(selection.films()).containsExactly(2L);
+        // every facet is counted without its own selection
+        assertThat(selection.genreCounts()).containsExactly(entry(2, 1L));
+        assertThat(selection.mpaCounts()).containsExactly(entry(1, 1L), entry(3, 1L));
+        assertThat(selection.yearCounts()).containsExactly(entry(1995, 1L), entry(2001, 1L));
+
+        facetIndex.put(2, Set.of(4), 3, 2005);
+        facetIndex.remove(3);
+
+        assertThat(facetIndex.select(Set.of(4), Set.of(), null, null).films()).containsExactly(2L);
+        assertThat(facetIndex.select(Set.of(), Set.of(), 2000, null).films()).containsExactly(2L);
+        assertThat(facetIndex.select(Set.of(), Set.of(), null, 1999).films()).containsExactly(1L, 4L);
+    }
+
+    @Test
+    public void testPopularityLeaderboard() {
+        PopularityLeaderboard leaderboard = new PopularityLeaderboard();
+        leaderboard.seed(Map.of(1L, 2L, 2L, 5L, 3L, 2L));
+        leaderboard.increment(4);
+
+        // more likes first, the smaller id first among equal counts
+        assertThat(leaderboard.top(10)).containsExactly(2L, 1L, 3L, 4L);
+        assertThat(leaderboard.top(2)).containsExactly(2L, 1L);
+        assertThat(leaderboard.top(2, filmId -> filmId % 2 == 1)).containsExactly(1L, 3L);
+
+        leaderboard.increment(3);
+        leaderboard.decrement(2);
+        leaderboard.decrement(2);
+        leaderboard.decrement(4);
+
+        assertThat(leaderboard.top(10)).containsExactly(2L, 3L, 1L);
+        assertThat(leaderboard.likes(2)).isEqualTo(3L);
+        assertThat(leaderboard.likes(4)).isZero();
+
+        // a film without likes is not ranked, the count does not go below zero
+        leaderboard.decrement(4);
+        leaderboard.set(1, 7);
+        leaderboard.remove(3);
+
+        assertThat(leaderboard.top(10)).containsExactly(1L, 2L);
+        assertThat(leaderboard.likes(3)).isZero();
+        assertThat(leaderboard.likes(4)).isZero();
+    }
+
+    @Test
+    public void testPopularityCharts() {
+        PopularityCharts charts = new PopularityCharts();
+        charts.put(1, Set.of(1, 2), 1999, () -> 5);
+        charts.put(2, Set.of(1), 1999, () -> 7);
+        charts.put(3, Set.of(1), 2001, () -> 9);
+        charts.put(4, Set.of(2), 1999, () -> 0);
+
+        assertThat(charts.top(1, null, 10)).containsExactly(3L, 2L, 1L);
+        assertThat(charts.top(1, null, 2)).containsExactly(3L, 2L);
+        assertThat(charts.top(null, 1999, 10)).containsExactly(2L, 1L);
+        assertThat(charts.top(1, 1999, 10)).containsExactly(2L, 1L);
+        assertThat(charts.top(2, 2001, 10)).isEmpty();
+
+        charts.set(1, () -> 8);
+        charts.set(4, () -> 1);
+
+        assertThat(charts.top(1, 1999, 10)).containsExactly(1L, 2L);
+        assertThat(charts.top(2, null, 10)).containsExactly(1L, 4L);
+
+        charts.put(2, Set.of(2), 2001, () -> 7);
+        charts.remove(3);
+
+        assertThat(charts.top(1, null, 10)).containsExactly(1L);
+        assertThat(charts.top(null, 2001, 10)).containsExactly(2L);
+        assertThat(charts.top(2, null, 10)).containsExactly(1L, 2L, 4L);
+    }
+
+    @Test
+    public void testIdBloomFilter() {
+        IdBloomFilter filter = new IdBloomFilter("film", 600_000, true);
+        LongIdSet ids = new LongIdSet();
+
+        for (long id = 1; id <= 500; id++) {
+            ids.addId(id);
+        }
+
+        filter.rebuild(() -> ids);
+
+        // far past the first stage, which holds 1024 ids
+        for (long id = 501; id <= 5000; id++) {
+            filter.add(id);
+        }
+
+        for (long id = 1; id <= 5000; id++) {
+            assertThat(filter.mightContain(id)).isTrue();
+        }
+
+        long falsePositives = 0;
+
+        for (long id = 1_000_001; id <= 1_100_000; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+
+        assertThat(falsePositives).isLessThan(2000L);
+        assertThat(filter.mightContain(null)).isFalse();
+
+        // a rebuild sheds the ids that are gone, keeps the ones added while it reads
+        filter.rebuild(() -> {
+            filter.add(9000);
+            return ids;
+        });
+
+        assertThat(filter.mightContain(1L)).isTrue();
+        assertThat(filter.mightContain(9000L)).isTrue();
+        assertThat(LongStream.rangeClosed(501, 5000).filter(filter::mightContain).count()).isLessThan(100L);
+        // a single writer trusts a miss, the storage is not asked
+        assertThat(filter.exists(9001L, id -> true)).isFalse();
+        filter.close();
+
+        // with other writers a miss is looked up, and an id found is learned
+        IdBloomFilter shared = new IdBloomFilter("film", 600_000, false);
+
+        assertThat(shared.find(42L, id -> Optional.of("film " + id))).contains("film 42");
+        assertThat(shared.mightContain(42L)).isTrue();
+        assertThat(shared.exists(43L, id -> false)).isFalse();
+        assertThat(shared.mightContain(43L)).isFalse();
+        assertThat(shared.exists(null, id -> true)).isFalse();
+        shared.close();
+    }
+
+    @Test
+    public void testPopularitySketch() {
+        PopularitySketch sketch = new PopularitySketch(60_000);
+
+        for (long filmId = 1; filmId <= 5000; filmId++) {
+            sketch.add(filmId, 1);
+        }
+
+        for (int i = 0; i < 100; i++) {
+            sketch.add(7, 1);
+            sketch.add(42, 1);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            sketch.add(4999, 1);
+        }
+
+        sketch.add(42, -1);
+
+        assertThat(sketch.top(3)).containsExactly(7L, 42L, 4999L);
+        assertThat(sketch.estimate(7)).isGreaterThanOrEqualTo(101L);
+        assertThat(sketch.estimate(42)).isGreaterThanOrEqualTo(100L).isLessThan(sketch.estimate(7));
+        assertThat(sketch.top(PopularitySketch.HEAVY_HITTERS)).hasSizeLessThanOrEqualTo(PopularitySketch.HEAVY_HITTERS);
+
+        sketch.remove(7);
+
+        assertThat(sketch.top(2)).containsExactly(42L, 4999L);
+
+        sketch.reset(Map.of(1L, 3L, 2L, 5L));
+
+        assertThat(sketch.top(10)).containsExactly(2L, 1L);
+        assertThat(sketch.estimate(42)).isZero();
+        sketch.close();
+    }
+
+    @Test
+    public void testTrendingCounters() {
+        long hour = TimeUnit.HOURS.toMillis(1);
+        long minute = TimeUnit.MINUTES.toMillis(1);
+        long start = 1000 * hour;
+        AtomicLong clock = new AtomicLong(start);
+        TrendingCounters trending = new TrendingCounters(clock::get);
+
+        for (int i = 0; i < 3; i++) {
+            trending.record(1, start - 50 * minute, 1);
+        }
+
+        trending.record(2, 1);
+        trending.record(2, 1);
+        trending.record(3, start - 2 * hour, 1);
+        trending.record(4, 1);
+        trending.record(4, -1);
+        trending.record(5, start - 8 * 24 * hour, 1);
+
+        // within the hour the older likes of film 1 have decayed below the fresh ones of film 2
+        assertThat(trending.top(TrendingCounters.Window.HOUR, 10)).containsExactly(2L, 1L);
+        assertThat(trending.top(TrendingCounters.Window.DAY, 10)).containsExactly(1L, 2L, 3L);
+        assertThat(trending.top(TrendingCounters.Window.DAY, 2)).containsExactly(1L, 2L);
+        assertThat(trending.top(TrendingCounters.Window.WEEK, 10)).containsExactly(1L, 2L, 3L);
+
+        clock.set(start + 2 * hour);
+        trending.sweep();
+
+        assertThat(trending.top(TrendingCounters.Window.HOUR, 10)).isEmpty();
+        assertThat(trending.top(TrendingCounters.Window.DAY, 10)).containsExactly(1L, 2L, 3L);
+
+        trending.remove(1);
+
+        assertThat(trending.top(TrendingCounters.Window.WEEK, 10)).containsExactly(2L, 3L);
+        assertThat(TrendingCounters.Window.of("24h")).contains(TrendingCounters.Window.DAY);
+        assertThat(TrendingCounters.Window.of("2h")).isEmpty();
+    }
+
     // CRUDs of likes
     @Test
     @Sql(scripts = "classpath:test-data.sql")
@@ -345,8 +986,8 @@ class FilmorateApplicationTests {
                 ? filmDbStorage.findById(transferredFilm1.getId()).get() : null;
 
         if (receivedFilm1 != null) {
-            assertThat(receivedFilm1.getLikes()).isNotEmpty();
-            assertThat(receivedFilm1.getLikes()).hasSize(2);
+            assertThat(receivedFilm1.getLikeCount()).isEqualTo(2L);
+            assertThat(filmDbStorage.findLikes(filmId1, 0, 10)).containsExactly(filmId2, filmId3);
         } else {
             fail("receivedFilm1 not found");
         }
@@ -367,13 +1008,117 @@ class FilmorateApplicationTests {
                 ? filmDbStorage.findById(transferredFilm1.getId()).get() : null;
 
         if (receivedFilm1 != null) {
-            assertThat(receivedFilm1.getLikes()).isNotEmpty();
-            assertThat(receivedFilm1.getLikes()).hasSize(1);
+            assertThat(receivedFilm1.getLikeCount()).isEqualTo(1L);
+            assertThat(filmDbStorage.findLikes(filmId1, 0, 10)).containsExactly(filmId2);
         } else {
             fail("receivedFilm1 not found");
         }
     }
 
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testFindLikesByPages() {
+        long filmId = transferredFilm1.getId();
+        List<Long> userIds = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            User user = new User();
+            user.setEmail("liker" + i + "@mail.ru");
+            user.setLogin("liker" + i);
+            user.setName("liker" + i);
+            user.setBirthday(LocalDate.of(1990, 1, 1));
+            userIds.add(userStorage.create(user).getId());
+            filmDbStorage.addLike(filmId, userIds.get(userIds.size() - 1));
+        }
+
+        List<Long> firstPage = filmDbStorage.findLikes(filmId, 0, 2);
+        List<Long> secondPage = filmDbStorage.findLikes(filmId, firstPage.get(firstPage.size() - 1), 2);
+        List<Long> lastPage = filmDbStorage.findLikes(filmId, secondPage.get(secondPage.size() - 1), 2);
+
+        assertThat(firstPage).containsExactlyElementsOf(userIds.subList(0, 2));
+        assertThat(secondPage).containsExactlyElementsOf(userIds.subList(2, 4));
+        assertThat(lastPage).containsExactly(userIds.get(4));
+        assertThat(filmDbStorage.findLikes(filmId, userIds.get(4), 2)).isEmpty();
+        assertThat(filmDbStorage.findById(filmId).orElseThrow().getLikeCount()).isEqualTo(5L);
+    }
+
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testRecommendationsFromLikeMatrix() {
+        long filmId1 = transferredFilm1.getId();
+        long filmId2 = transferredFilm2.getId();
+        long filmId3 = transferredFilm3.getId();
+        long userId1 = transferredUser1.getId();
+        long userId2 = transferredUser2.getId();
+        long userId3 = transferredUser3.getId();
+
+        filmDbStorage.addLike(filmId1, userId1);
+        filmDbStorage.addLike(filmId1, userId2);
+        filmDbStorage.addLike(filmId2, userId2);
+        filmDbStorage.addLike(filmId1, userId3);
+        filmDbStorage.addLike(filmId2, userId3);
+        filmDbStorage.addLike(filmId3, userId3);
+
+        LikeMatrix likeMatrix = new LikeMatrix();
+        likeMatrix.seed(filmDbStorage.getAllLikes());
+
+        // film 2: similarities 1/2 + 1/3, film 3: 1/3
+        assertThat(likeMatrix.recommend(userId1, 10)).containsExactly(filmId2, filmId3);
+        assertThat(likeMatrix.recommend(userId1, 1)).containsExactly(filmId2);
+        assertThat(likeMatrix.recommend(userId3, 10)).isEmpty();
+
+        likeMatrix.removeLike(filmId2, userId2);
+        likeMatrix.removeLike(filmId2, userId3);
+
+        assertThat(likeMatrix.recommend(userId1, 10)).containsExactly(filmId3);
+
+        likeMatrix.removeFilm(filmId3);
+        likeMatrix.addLike(filmId2, userId2);
+
+        assertThat(likeMatrix.recommend(userId1, 10)).containsExactly(filmId2);
+
+        likeMatrix.removeUser(userId2);
+
+        assertThat(likeMatrix.recommend(userId1, 10)).isEmpty();
+    }
+
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testLikeWriteBufferCoalescesAndFlushes() {
+        long filmId1 = transferredFilm1.getId();
+        long filmId2 = transferredFilm2.getId();
+        Map<Long, LikesChange> flushed = new HashMap<>();
+        LikeWriteBuffer buffer = new LikeWriteBuffer(filmDbStorage, 100, 60_000, flushed::putAll);
+
+        filmDbStorage.addLike(filmId2, transferredUser3.getId());
+        buffer.like(filmId1, transferredUser1.getId());
+        buffer.like(filmId1, transferredUser2.getId());
+        buffer.like(filmId1, transferredUser2.getId());
+        buffer.like(filmId2, transferredUser1.getId());
+        buffer.unlike(filmId2, transferredUser1.getId());
+        buffer.unlike(filmId2, transferredUser3.getId());
+        buffer.like(filmId2, transferredUser3.getId());
+
+        // the last event of a pair wins, the repeated like is kept once
+        assertThat(buffer.pendingCount()).isEqualTo(4);
+
+        buffer.flush();
+
+        assertThat(buffer.pendingCount()).isZero();
+        // only the rows really written count as changes: the stored like of film 2 is kept
+        assertThat(flushed).containsOnly(entry(filmId1, new LikesChange(2, 2)), entry(filmId2, new LikesChange(1, 0)));
+        assertThat(filmDbStorage.getLikesCounts()).containsOnly(entry(filmId1, 2L), entry(filmId2, 1L));
+
+        // a like and an unlike of a stored like: the unlike is written
+        buffer.like(filmId1, transferredUser1.getId());
+        buffer.like(filmId2, transferredUser3.getId());
+        buffer.unlike(filmId2, transferredUser3.getId());
+        buffer.close();
+
+        assertThat(flushed).containsOnly(entry(filmId1, new LikesChange(2, 0)), entry(filmId2, new LikesChange(0, -1)));
+        assertThat(filmDbStorage.getMostPopular(3)).extracting(Film::getId).containsExactly(filmId1);
+    }
+
     // read populars
     @Test
     @Sql(scripts = "classpath:test-data.sql")
@@ -390,6 +1135,88 @@ class FilmorateApplicationTests {
 
         assertThat(mostPopularFilms1).hasSize(2);
         assertThat(mostPopularFilms2).hasSize(1);
+        assertThat(mostPopularFilms1.get(0).getId()).isEqualTo(filmId2);
+        assertThat(mostPopularFilms1.get(1).getId()).isEqualTo(filmId3);
+        assertThat(mostPopularFilms2.get(0).getId()).isEqualTo(filmId2);
+
+        filmDbStorage.deleteLike(filmId2, filmId1);
+        filmDbStorage.deleteLike(filmId2, filmId3);
+
+        assertThat(filmDbStorage.getMostPopular(2)).extracting(Film::getId).containsExactly(filmId3);
+    }
+
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testFindFilmsByIdsAndLikesCounts() {
+        long filmId1 = transferredFilm1.getId();
+        long filmId2 = transferredFilm2.getId();
+        long filmId3 = transferredFilm3.getId();
+
+        filmDbStorage.addLike(filmId3, filmId1);
+        filmDbStorage.addLike(filmId3, filmId2);
+        filmDbStorage.addLike(filmId1, filmId2);
+
+        assertThat(filmDbStorage.getLikesCounts()).containsOnly(entry(filmId3, 2L), entry(filmId1, 1L));
+        assertThat(filmDbStorage.findByIds(List.of(filmId3, -1L, filmId1)))
+                .extracting(Film::getId)
+                .containsExactly(filmId3, filmId1);
+    }
+
+    // InMemoryFilmStorage under concurrent requests
+    @Test
+    public void testInMemoryFilmStorageConcurrentIncludesAndLikes() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        for (int i = 0; i < 1_000; i++) {
+            executor.submit(() -> {
+                Film film = new Film();
+                film.setName("concurrent");
+                film.setReleaseDate(LocalDate.of(2000, 1, 1));
+                inMemoryFilmStorage.include(film);
+            });
+        }
+
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(inMemoryFilmStorage.findAll()).extracting(Film::getId).doesNotHaveDuplicates().hasSize(1_000);
+
+        long filmId = inMemoryFilmStorage.findPage(0, 1).get(0).getId();
+        executor = Executors.newFixedThreadPool(8);
+
+        for (long userId = 1; userId <= 1_000; userId++) {
+            long likingUserId = userId;
+            executor.submit(() -> inMemoryFilmStorage.addLike(filmId, likingUserId));
+        }
+
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(inMemoryFilmStorage.getLikesCounts()).containsOnly(entry(filmId, 1_000L));
+    }
+
+    // LongIdSet
+    @Test
+    public void testLongIdSetAddRemoveAndIntersect() {
+        LongIdSet ids = new LongIdSet();
+        LongIdSet otherIds = new LongIdSet();
+
+        for (long id = 1; id <= 200; id++) {
+            ids.addId(id);
+            otherIds.addId(id * 3);
+        }
+
+        ids.addId(5_000_000_000L);
+        otherIds.addId(5_000_000_000L);
+
+        assertThat(ids.addId(7)).isFalse();
+        assertThat(ids.removeId(7)).isTrue();
+        assertThat(ids.removeId(7)).isFalse();
+        assertThat(ids).hasSize(200).doesNotContain(7L, 201L).contains(1L, 64L, 200L, 5_000_000_000L);
+        assertThat(ids.intersect(otherIds))
+                .containsExactly(3L, 6L, 9L, 12L, 15L, 18L, 21L, 24L, 27L, 30L, 33L, 36L, 39L, 42L, 45L, 48L,
+                        51L, 54L, 57L, 60L, 63L, 66L, 69L, 72L, 75L, 78L, 81L, 84L, 87L, 90L, 93L, 96L, 99L,
+                        102L, 105L, 108L, 111L, 114L, 117L, 120L, 123L, 126L, 129L, 132L, 135L, 138L, 141L,
+                        144L, 147L, 150L, 153L, 156L, 159L, 162L, 165L, 168L, 171L, 174L, 177L, 180L, 183L,
+                        186L, 189L, 192L, 195L, 198L, 5_000_000_000L);
     }
 
     // genres
@@ -413,6 +1240,29 @@ class FilmorateApplicationTests {
         }
     }
 
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testGenresAndMpaAreSharedRegistryInstances() {
+        Film film = new Film();
+        film.setName("flyweights");
+        film.setReleaseDate(LocalDate.of(2000, 1, 1));
+        film.setMpa(new MotionPictureAA(4, null));
+        Genre genre = new Genre(2, null);
+        film.setGenres(Set.of(genre));
+        filmDbStorage.include(film);
+
+        Film receivedFilm = filmDbStorage.findById(film.getId()).orElseThrow();
+
+        assertThat(receivedFilm.getMpa()).isSameAs(referenceData.getMPA(4));
+        assertThat(receivedFilm.getMpa().getName()).isEqualTo("R");
+        assertThat(receivedFilm.getGenres()).singleElement().isSameAs(referenceData.getGenre(2));
+
+        Genre unknownGenre = new Genre(100, null);
+        film.setGenres(Set.of(unknownGenre));
+
+        assertThrows(NotFoundException.class, () -> filmDbStorage.include(film));
+    }
+
     // mpa's
     @Test
     @Sql(scripts = "classpath:test-data.sql")
@@ -433,4 +1283,15 @@ class FilmorateApplicationTests {
             assertThat(mpa.getName()).isEqualTo("G");
         }
     }
+
+    private static Set<Genre> genresOf(int... genreIds) {
+        Set<Genre> genres = new HashSet<>();
+
+        for (int genreId : genreIds) {
+            Genre genre = new Genre(genreId, null);
+            genres.add(genre);
+        }
+
+        return genres;
+    }
 }
@@ -0,0 +1,231 @@
+package ru.yandex.practicum;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.jdbc.Sql;
+import ru.yandex.practicum.model.FacetedFilms;
+import ru.yandex.practicum.model.Film;
+import ru.yandex.practicum.model.ImportReport;
+import ru.yandex.practicum.model.User;
+import ru.yandex.practicum.service.ImportService;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the whole application on a random port: controllers, services, Jackson setup and the database together
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class FilmorateWebTests {
+    @Autowired
+    private TestRestTemplate rest;
+    @Autowired
+    private ImportService importService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testFilmBodyResolvesGenresAndMpaFromRegistry() {
+        String body = "{\"name\": \"web film\", \"description\": \"d\", \"releaseDate\": \"2000-01-01\", " +
+                "\"duration\": 90, \"mpa\": {\"id\": 2}, \"genres\": [{\"id\": 1}]}";
+
+        ResponseEntity<Film> created = rest.postForEntity("/films", json(body), Film.class);
+
+        assertThat(created.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(created.getBody()).isNotNull();
+        assertThat(created.getBody().getMpa().getName()).isEqualTo("PG");
+        assertThat(created.getBody().getGenres()).hasSize(1);
+
+        ResponseEntity<Film> found = rest.getForEntity("/films/" + created.getBody().getId(), Film.class);
+
+        assertThat(found.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(found.getBody().getMpa().getId()).isEqualTo(2);
+    }
+
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testImportReportsEveryRejectedLine() {
+        String body = String.join("\n",
+                "{\"type\": \"user\", \"login\": \"first\", \"email\": \"first@mail.ru\", " +
+                        "\"birthday\": \"1980-01-01\"}",
+                "{\"type\": \"user\", \"login\": \"second\", \"email\": \"second@mail.ru\", " +
+                        "\"birthday\": \"1981-01-01\"}",
+                "{\"type\": \"film\", \"name\": \"imported\", \"releaseDate\": \"1967-03-25\", " +
+                        "\"duration\": 100, \"mpa\": {\"id\": 1}}",
+                "",
+                "{\"type\": \"film\", \"name\": ",
+                "{\"type\": \"review\"}",
+                "{\"type\": \"user\", \"login\": \"with space\", \"email\": \"third@mail.ru\"}",
+                "{\"type\": \"film\", \"name\": \"too old\", \"releaseDate\": \"1800-01-01\", " +
+                        "\"duration\": 100, \"mpa\": {\"id\": 1}}");
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/x-ndjson"));
+
+        ResponseEntity<ImportReport> response = rest.postForEntity("/import", new HttpEntity<>(body, headers),
+                ImportReport.class);
+        ImportReport report = response.getBody();
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(report).isNotNull();
+        assertThat(report.getImported()).isEqualTo(3L);
+        assertThat(report.getFailed()).isEqualTo(4L);
+        assertThat(report.getErrors()).extracting(ImportReport.LineError::line).containsExactly(5L, 6L, 7L, 8L);
+        assertThat(report.getErrors().get(0).error()).startsWith("malformed JSON");
+        assertThat(report.getErrors().get(1).error()).contains("review");
+        assertThat(rest.getForObject("/users", User[].class)).extracting(User::getLogin)
+                .containsExactly("first", "second");
+        assertThat(rest.getForObject("/films", Film[].class)).extracting(Film::getName).containsExactly("imported");
+    }
+
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testImportWritesRejectedChunkLineByLine() throws IOException {
+        importService.importRecords(ndjson(
+                "{\"type\": \"user\", \"login\": \"liker\", \"email\": \"liker@mail.ru\", " +
+                        "\"birthday\": \"1980-01-01\"}",
+                "{\"type\": \"film\", \"name\": \"liked\", \"releaseDate\": \"1990-01-01\", " +
+                        "\"duration\": 100, \"mpa\": {\"id\": 1}}"));
+        long userId = rest.getForObject("/users", User[].class)[0].getId();
+        long filmId = rest.getForObject("/films", Film[].class)[0].getId();
+
+        // the like of the unknown film fails the chunk, which is then written one line at a time
+        ImportReport report = importService.importRecords(ndjson(
+                "{\"type\": \"like\", \"filmId\": " + filmId + ", \"userId\": " + userId + "}",
+                "{\"type\": \"like\", \"filmId\": " + (filmId + 1000) + ", \"userId\": " + userId + "}"));
+
+        assertThat(report.getImported()).isEqualTo(1L);
+        assertThat(report.getFailed()).isEqualTo(1L);
+        assertThat(report.getErrors()).extracting(ImportReport.LineError::line).containsExactly(2L);
+        assertThat(rest.getForObject("/films/popular", Film[].class)).extracting(Film::getId).contains(filmId);
+    }
+
+    @Test
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testFilterPagesByOffsetWithFacets() {
+        long[] filmIds = new long[3];
+
+        for (int i = 0; i < filmIds.length; i++) {
+            String body = "{\"name\": \"filtered " + i + "\", \"description\": \"d\", " +
+                    "\"releaseDate\": \"193" + (i + 1) + "-01-01\", \"duration\": 90, \"mpa\": {\"id\": 1}}";
+            filmIds[i] = rest.postForObject("/films", json(body), Film.class).getId();
+        }
+
+        String user = "{\"login\": \"fan\", \"email\": \"fan@mail.ru\", \"birthday\": \"1980-01-01\"}";
+        long userId = rest.postForObject("/users", json(user), User.class).getId();
+        rest.put("/films/" + filmIds[2] + "/like/" + userId, null);
+
+        FacetedFilms firstPage = rest.getForObject("/films/filter?yearFrom=1931&yearTo=1933&limit=2",
+                FacetedFilms.class);
+        FacetedFilms secondPage = rest.getForObject("/films/filter?yearFrom=1931&yearTo=1933&offset=2&limit=2",
+                FacetedFilms.class);
+        FacetedFilms popular = rest.getForObject("/films/filter?yearFrom=1931&yearTo=1933&sort=popular&limit=2",
+                FacetedFilms.class);
+
+        assertThat(firstPage.getTotal()).isEqualTo(3L);
+        assertThat(firstPage.getFilms()).extracting(Film::getId).containsExactly(filmIds[0], filmIds[1]);
+        assertThat(firstPage.getMpas()).containsEntry(1, 3L);
+        assertThat(secondPage.getFilms()).extracting(Film::getId).containsExactly(filmIds[2]);
+        assertThat(popular.getFilms()).extracting(Film::getId).containsExactly(filmIds[2], filmIds[0]);
+        assertThat(rest.getForEntity("/films/filter?yearFrom=1933&yearTo=1931", String.class).getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+        // an update without mpa keeps the stored one, in the database and in the facets
+        String update = "{\"id\": " + filmIds[0] + ", \"name\": \"filtered 0\", \"description\": \"d\", " +
+                "\"releaseDate\": \"1931-01-01\", \"duration\": 100}";
+        rest.put("/films", json(update));
+
+        assertThat(rest.getForObject("/films/filter?mpa=1&yearFrom=1931&yearTo=1933", FacetedFilms.class)
+                .getTotal()).isEqualTo(3L);
+        // the plain list stays a list whatever is passed along
+        assertThat(rest.getForObject("/films?after=" + filmIds[0] + "&sort=popular", Film[].class))
+                .extracting(Film::getId).containsExactly(filmIds[1], filmIds[2]);
+    }
+
+
+    // a fresh context: the leaderboard is seeded from the empty database, no likes are left from other tests
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.BEFORE_METHOD)
+    @Sql(scripts = "classpath:test-data.sql")
+    public void testPopularFollowsLikesAndUnlikes() {
+        long[] filmIds = new long[3];
+        long[] userIds = new long[2];
+
+        for (int i = 0; i < filmIds.length; i++) {
+            String body = "{\"name\": \"popular " + i + "\", \"description\": \"d\", " +
+                    "\"releaseDate\": \"2000-01-01\", \"duration\": 90, \"mpa\": {\"id\": 1}}";
+            filmIds[i] = rest.postForObject("/films", json(body), Film.class).getId();
+        }
+
+        for (int i = 0; i < userIds.length; i++) {
+            String body = "{\"login\": \"fan" + i + "\", \"email\": \"fan" + i + "@mail.ru\", " +
+                    "\"birthday\": \"1980-01-01\"}";
+            userIds[i] = rest.postForObject("/users", json(body), User.class).getId();
+        }
+
+        rest.put("/films/" + filmIds[2] + "/like/" + userIds[0], null);
+        rest.put("/films/" + filmIds[2] + "/like/" + userIds[1], null);
+        rest.put("/films/" + filmIds[1] + "/like/" + userIds[0], null);
+
+        assertThat(rest.getForObject("/films/popular", Film[].class)).extracting(Film::getId)
+                .containsExactly(filmIds[2], filmIds[1]);
+        assertThat(rest.getForObject("/films/popular?count=1", Film[].class)).extracting(Film::getId)
+                .containsExactly(filmIds[2]);
+
+        rest.delete("/films/" + filmIds[2] + "/like/" + userIds[0]);
+        rest.delete("/films/" + filmIds[2] + "/like/" + userIds[1]);
+        rest.put("/films/" + filmIds[0] + "/like/" + userIds[1], null);
+
+        // equal counts: the smaller id first
+        assertThat(rest.getForObject("/films/popular", Film[].class)).extracting(Film::getId)
+                .containsExactly(filmIds[0], filmIds[1]);
+    }
+
+    // the id filters of an instance that shares its database with other writers; a context of its own,
+    // so a database of its own too
+    @Nested
+    @TestPropertySource(properties = {"filmorate.ids.filter.single-writer=false",
+            "spring.datasource.url=jdbc:h2:mem:shareddb"})
+    class SharedDatabase {
+        @Autowired
+        private TestRestTemplate rest;
+        @Autowired
+        private JdbcTemplate jdbcTemplate;
+
+        @Test
+        @Sql(scripts = "classpath:test-data.sql")
+        public void testFilmWrittenStraightToDatabaseIsFound() {
+            // another instance's write: the id filter of this one has not seen it
+            jdbcTemplate.update("INSERT INTO films (name, description, releaseDate, duration) " +
+                    "VALUES ('elsewhere', 'd', '2001-01-01', 90)");
+            long filmId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM films", Long.class);
+
+            ResponseEntity<Film> found = rest.getForEntity("/films/" + filmId, Film.class);
+
+            assertThat(found.getStatusCode()).isEqualTo(HttpStatus.OK);
+            assertThat(found.getBody().getName()).isEqualTo("elsewhere");
+        }
+    }
+
+    private static InputStream ndjson(String... lines) {
+        return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static HttpEntity<String> json(String body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new HttpEntity<>(body, headers);
+    }
+}
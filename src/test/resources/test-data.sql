@@ -5,6 +5,10 @@ DELETE FROM users;
 DELETE FROM motion_picture_aa;
 DELETE FROM genre;
 
+-- the fixtures use film ids as user ids, so both start over together
+ALTER TABLE films ALTER COLUMN id RESTART WITH 1;
+ALTER TABLE users ALTER COLUMN id RESTART WITH 1;
+
 INSERT INTO motion_picture_aa (id, name) VALUES
 (1, 'G'),
 (2, 'PG'),